@@ -0,0 +1,31 @@
+package net.netne.platinumcoding.ini.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so that the allocation rate is
+ * reported next to the throughput and latency. Takes the same arguments as
+ * JMH's own main class, such as a pattern of the benchmarks to run.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * java -jar benchmarks/target/benchmarks.jar INIReaderBenchmark -p size=1MB
+ * }
+ * </pre>
+ *
+ * @author Dealer Next Door
+ */
+public class BenchmarkRunner {
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+
+		new Runner(options).run();
+	}
+}
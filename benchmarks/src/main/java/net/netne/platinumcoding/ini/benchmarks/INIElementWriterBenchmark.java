@@ -0,0 +1,77 @@
+package net.netne.platinumcoding.ini.benchmarks;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.netne.platinumcoding.ini.INIElement;
+import net.netne.platinumcoding.ini.INIElementWriter;
+
+/**
+ * Benchmarks {@link INIElementWriter#setValue(Object)} on an element in the
+ * middle of the file.
+ * <br /><br />
+ * The value switches between two values on every call. When both have the same
+ * length the value is written over the old one and the modification time of the
+ * file is moved forward. Otherwise the file is copied into a temp file with the
+ * new value and the temp file replaces it, so the time grows with the file.
+ *
+ * @author Dealer Next Door
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class INIElementWriterBenchmark {
+	@Param({ "1KB", "1MB", "10MB", "100MB" })
+	public String size;
+
+	/**
+	 * "same" if both values have the same length, "different" if they do not
+	 */
+	@Param({ "same", "different" })
+	public String length;
+
+	private File dir;
+	private INIElementWriter writer;
+	private String[] values;
+	private int counter;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this.dir = SyntheticFiles.createDirectory();
+		File file = new File(this.dir, "Benchmark.ini");
+		int categories = SyntheticFiles.write(file, this.size);
+
+		String category = SyntheticFiles.category("middle", categories);
+		this.writer = new INIElementWriter(new INIElement(file, category, "Key0", "Value"));
+		this.values = this.length.equals("same")
+				? new String[] { "1111", "2222" }
+				: new String[] { "1", "22" };
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		SyntheticFiles.delete(this.dir);
+	}
+
+	@Benchmark
+	public void setValue() {
+		this.writer.setValue(this.values[this.counter++ & 1]);
+	}
+}
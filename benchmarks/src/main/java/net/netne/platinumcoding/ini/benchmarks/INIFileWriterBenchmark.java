@@ -0,0 +1,91 @@
+package net.netne.platinumcoding.ini.benchmarks;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.netne.platinumcoding.ini.INIFileWriter;
+
+/**
+ * Benchmarks {@link INIFileWriter#addCategory(String)},
+ * {@link INIFileWriter#addElement(String, String, Object)} and
+ * {@link INIFileWriter#addComment(String, Object)}.
+ * <br /><br />
+ * Every call adds something new, so the file grows during an iteration. It is
+ * put back to its original content before every iteration.
+ *
+ * @author Dealer Next Door
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class INIFileWriterBenchmark {
+	@Param({ "1KB", "1MB", "10MB", "100MB" })
+	public String size;
+
+	/**
+	 * Adds to the file in place when true, instead of rewriting it
+	 */
+	@Param({ "false", "true" })
+	public boolean appendMode;
+
+	private File dir, original, file;
+	private INIFileWriter writer;
+	private String lastCategory;
+	private long counter;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this.dir = SyntheticFiles.createDirectory();
+		this.original = new File(this.dir, "Original.ini");
+		this.file = new File(this.dir, "Benchmark.ini");
+
+		int categories = SyntheticFiles.write(this.original, this.size);
+		this.lastCategory = SyntheticFiles.category("last", categories);
+	}
+
+	@Setup(Level.Iteration)
+	public void reset() throws IOException {
+		Files.copy(this.original.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		this.writer = new INIFileWriter(this.file);
+		this.writer.setAppendMode(this.appendMode);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		SyntheticFiles.delete(this.dir);
+	}
+
+	@Benchmark
+	public void addCategory() {
+		this.writer.addCategory("New" + this.counter++);
+	}
+
+	@Benchmark
+	public void addElement() {
+		this.writer.addElement(this.lastCategory, "New" + this.counter++, "Value");
+	}
+
+	@Benchmark
+	public void addComment() {
+		this.writer.addComment("Category0", "Comment " + this.counter++);
+	}
+}
@@ -0,0 +1,78 @@
+package net.netne.platinumcoding.ini.benchmarks;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.netne.platinumcoding.ini.INIElement;
+import net.netne.platinumcoding.ini.INIReader;
+
+/**
+ * Benchmarks {@link INIReader#getElements(String)} and
+ * {@link INIReader#getCategoryCount()}, reading straight from the file.
+ *
+ * @author Dealer Next Door
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class INIReaderBenchmark {
+	@State(Scope.Benchmark)
+	public static class FileState {
+		@Param({ "1KB", "1MB", "10MB", "100MB" })
+		public String size;
+
+		File dir;
+		INIReader reader;
+		int categories;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			this.dir = SyntheticFiles.createDirectory();
+			File file = new File(this.dir, "Benchmark.ini");
+			this.categories = SyntheticFiles.write(file, this.size);
+			this.reader = new INIReader(file);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			SyntheticFiles.delete(this.dir);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class SectionState {
+		/**
+		 * Which category is looked up: the first or last one in the file, one in
+		 * the middle, or one that is not in the file at all
+		 */
+		@Param({ "first", "middle", "last", "missing" })
+		public String section;
+	}
+
+	@Benchmark
+	public ArrayList<INIElement> getElements(FileState file, SectionState section) {
+		return file.reader.getElements(SyntheticFiles.category(section.section, file.categories));
+	}
+
+	@Benchmark
+	public int getCategoryCount(FileState file) {
+		return file.reader.getCategoryCount();
+	}
+}
@@ -0,0 +1,112 @@
+package net.netne.platinumcoding.ini.benchmarks;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Writes the INI files that the benchmarks run against.
+ * <br /><br />
+ * Every file is made of categories named "Category0", "Category1" and so on, each
+ * holding the elements "Key0" to "Key9", until the file reaches the requested
+ * size.
+ *
+ * @author Dealer Next Door
+ */
+final class SyntheticFiles {
+	/**
+	 * The number of elements under every category
+	 */
+	static final int KEYS = 10;
+
+	private SyntheticFiles() {
+	}
+
+	/**
+	 * Writes a new INI file of about the requested size.
+	 *
+	 * @param file	The file to be written
+	 * @param size	The size of the file, such as "1KB", "10MB" or "4096"
+	 * @return The number of categories in the file
+	 * @throws IOException If the file could not be written
+	 */
+	static int write(File file, String size) throws IOException {
+		long target = bytes(size);
+		long written = 0;
+		int categories = 0;
+
+		try (BufferedWriter out = new BufferedWriter(new FileWriter(file), 64 * 1024)) {
+			do {
+				String header = "[Category" + categories + "]\n";
+				out.write(header);
+				written += header.length();
+
+				for (int k = 0; k < KEYS; k++) {
+					String line = "Key" + k + "=Value" + categories + '_' + k + '\n';
+					out.write(line);
+					written += line.length();
+				}
+
+				out.write('\n');
+				written++;
+				categories++;
+			} while (written < target);
+		}
+
+		return categories;
+	}
+
+	/**
+	 * Gets the name of a category in a file written by {@link #write(File, String)}.
+	 *
+	 * @param position		"first", "middle", "last" or "missing"
+	 * @param categories	The number of categories in the file
+	 * @return The name of the category
+	 */
+	static String category(String position, int categories) {
+		switch (position) {
+			case "first":
+				return "Category0";
+			case "middle":
+				return "Category" + (categories / 2);
+			case "last":
+				return "Category" + (categories - 1);
+			case "missing":
+				return "Missing";
+			default:
+				throw new IllegalArgumentException("Unknown position: " + position);
+		}
+	}
+
+	/**
+	 * Parses a size such as "1KB", "10MB" or "4096" into bytes.
+	 */
+	static long bytes(String size) {
+		if (size.endsWith("MB"))
+			return Long.parseLong(size.substring(0, size.length() - 2)) * 1024 * 1024;
+		if (size.endsWith("KB"))
+			return Long.parseLong(size.substring(0, size.length() - 2)) * 1024;
+
+		return Long.parseLong(size);
+	}
+
+	/**
+	 * Creates a new, empty directory for the files of a benchmark.
+	 */
+	static File createDirectory() throws IOException {
+		return Files.createTempDirectory("ini-benchmark").toFile();
+	}
+
+	/**
+	 * Deletes a directory and everything in it.
+	 */
+	static void delete(File dir) throws IOException {
+		if (dir == null || !dir.exists()) return;
+
+		try (Stream<Path> paths = Files.walk(dir.toPath())) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+}
@@ -0,0 +1,482 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * This class is used for reading and changing an INI file without blocking the
+ * calling thread.
+ * <br /><br />
+ * Every method returns a {@link CompletableFuture} right away. The file is read
+ * and written through an {@link AsynchronousFileChannel}, and the parsing and
+ * the completion of the futures happen on the threads of the executor given to
+ * the constructor, or on the JVM's default thread pool for asynchronous channels
+ * if no executor is given.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * INIAsyncFile file = new INIAsyncFile(new java.io.File("Example.ini"), executor);
+ *
+ * file.getElements("Window").thenAccept(elements -> {
+ *	for (INIElement element : elements)
+ *		System.out.println(element.getKey() + " = " + element.getValue());
+ * });
+ *
+ * // Written one after another, in this order
+ * file.setValue("Window", "Width", 1280);
+ * file.addElement("Window", "Fullscreen", false)
+ *	.exceptionally(error -> {
+ *		error.printStackTrace();
+ *		return null;
+ *	});
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * Changes to the same file are made one at a time, in the order their methods
+ * were called, even by different INIAsyncFiles. Each change reads the file,
+ * writes the new content to a temp file and then replaces the file, the same
+ * way as {@link INIEditSession#commit()}. If the file's size, modification time
+ * or file key changed in the meantime, the change is made again on the new
+ * content, a little later each time. If the file is still being changed after
+ * 10 attempts, the change fails with an {@link IOException}. The writers of this
+ * library always replace the file, make it longer or move its modification time
+ * forward, so no change made through them is lost. A program that writes over
+ * the file in place, without changing its size, within the same modification
+ * time, is not noticed, and its change can be lost. Reads are not ordered with
+ * changes, and see the file as it is when they start.
+ * <br /><br />
+ * Lines are read the same way as by {@link INIDocument}, and failures are given
+ * to the returned futures instead of being printed.
+ *
+ * @author Dealer Next Door
+ */
+public class INIAsyncFile {
+	/**
+	 * The change that was started last for every file, which the next change
+	 * waits for
+	 */
+	private static final ConcurrentHashMap<Path, CompletableFuture<Void>> QUEUES = new ConcurrentHashMap<>();
+
+	/**
+	 * The most times a change is made before it fails, if the file keeps being
+	 * changed by something else
+	 */
+	private static final int MAX_ATTEMPTS = 10;
+
+	/**
+	 * How much longer is waited before each new attempt, in milliseconds
+	 */
+	private static final long RETRY_DELAY = 10;
+
+	/**
+	 * The INI file that is being read and changed.
+	 */
+	private final File iniFile;
+
+	/**
+	 * The path of the file, as used for ordering changes
+	 */
+	private final Path path;
+
+	/**
+	 * Runs the reads, writes and parsing, or null for the default thread pool
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The character set that the file is written in
+	 */
+	private final Charset charset = Charset.defaultCharset();
+
+	/**
+	 * Creates an INIAsyncFile that uses the JVM's default thread pool for
+	 * asynchronous channels.
+	 *
+	 * @param file The INI file to be read and changed
+	 */
+	public INIAsyncFile(File file) {
+		this(file, null);
+	}
+
+	/**
+	 * Creates an INIAsyncFile that reads, writes and parses on the threads of an
+	 * executor.
+	 *
+	 * @param file		The INI file to be read and changed
+	 * @param executor	The executor to run on, or null for the JVM's default
+	 * thread pool for asynchronous channels
+	 */
+	public INIAsyncFile(File file, ExecutorService executor) {
+		this.iniFile = file;
+		this.path = file.toPath().toAbsolutePath().normalize();
+		this.executor = executor;
+	}
+
+	/**
+	 * Reads and parses the whole file.
+	 *
+	 * @return The parsed file
+	 */
+	public CompletableFuture<INIDocument> load() {
+		return this.read().thenApply(content -> {
+			try {
+				return INIDocument.parse(this.iniFile,
+						new BufferedReader(new StringReader(new String(content.bytes, this.charset))));
+			} catch (IOException ex) {
+				// Reading from a String does not fail
+				throw new UncheckedIOException(ex);
+			}
+		});
+	}
+
+	/**
+	 * Reads the elements in a specific category.
+	 *
+	 * @param category The specified category to look under
+	 * @return An ArrayList of INIElements, or null if the category has no elements
+	 */
+	public CompletableFuture<ArrayList<INIElement>> getElements(String category) {
+		return this.load().thenApply(document -> document.getElements(category));
+	}
+
+	/**
+	 * Counts the category headers in the file.
+	 *
+	 * @return The total number of categories within the INI file
+	 */
+	public CompletableFuture<Integer> getCategoryCount() {
+		return this.load().thenApply(INIDocument::getCategoryCount);
+	}
+
+	/**
+	 * Adds a category to the end of the file, if the file does not already
+	 * contain it.
+	 *
+	 * @param category The category to be added to the file
+	 * @return Completes once the file has been written
+	 */
+	public CompletableFuture<Void> addCategory(String category) {
+		return this.commit(new INIEditSession(this.iniFile).addCategory(category));
+	}
+
+	/**
+	 * Adds an element to the desired category. If the element already exists,
+	 * it is not overwritten.
+	 *
+	 * @param category	The desired category to add the element to
+	 * @param key		The key that will represent the element
+	 * @param value		The value of the element
+	 * @return Completes once the file has been written
+	 */
+	public CompletableFuture<Void> addElement(String category, String key, Object value) {
+		return this.commit(new INIEditSession(this.iniFile).addElement(category, key, value));
+	}
+
+	/**
+	 * Adds a comment to the line directly above the specified category.
+	 *
+	 * @param category	The category to add the comment above
+	 * @param comment	The comment to be added above the category
+	 * @return Completes once the file has been written
+	 */
+	public CompletableFuture<Void> addComment(String category, Object comment) {
+		return this.commit(new INIEditSession(this.iniFile).addComment(category, comment));
+	}
+
+	/**
+	 * Changes the value of an element that is already in the file. Nothing is
+	 * done if the element does not exist.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @param value		The new value of the element
+	 * @return Completes once the file has been written
+	 */
+	public CompletableFuture<Void> setValue(String category, String key, Object value) {
+		return this.commit(new INIEditSession(this.iniFile).setValue(category, key, value));
+	}
+
+	/**
+	 * Writes every change of an edit session in a single pass. The session must
+	 * not be changed until the returned future completes, and is empty
+	 * afterwards if the changes were written.
+	 *
+	 * @param session The changes to be written
+	 * @return Completes once the file has been written
+	 */
+	public CompletableFuture<Void> commit(INIEditSession session) {
+		Objects.requireNonNull(session, "session");
+		if (session.isEmpty())
+			return CompletableFuture.completedFuture(null);
+
+		return this.enqueue(() -> this.attempt(session, 1)).thenRun(session::clear);
+	}
+
+	/**
+	 * Starts a change once the change before it on the same file is done,
+	 * whether or not that one succeeded.
+	 */
+	private CompletableFuture<Void> enqueue(Supplier<CompletableFuture<Void>> change) {
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		CompletableFuture<Void> previous = QUEUES.put(this.path, result);
+		CompletableFuture<Void> ready = (previous != null ? previous : CompletableFuture.completedFuture(null));
+
+		ready.handle((ignored, error) -> null)
+				.thenCompose(ignored -> change.get())
+				.whenComplete((ignored, error) -> {
+					QUEUES.remove(this.path, result);
+					if (error != null)
+						result.completeExceptionally(error);
+					else
+						result.complete(null);
+				});
+
+		return result;
+	}
+
+	/**
+	 * Reads the file, applies the changes and writes them to a temp file, then
+	 * replaces the file if nothing else changed it in the meantime, or tries
+	 * again a little later if something did.
+	 *
+	 * @param session	The changes to be written
+	 * @param attempt	The number of this attempt, starting at 1
+	 */
+	private CompletableFuture<Void> attempt(INIEditSession session, int attempt) {
+		return this.read().thenCompose(content -> {
+			byte[] bytes;
+			File temp;
+
+			try {
+				StringWriter text = new StringWriter();
+				try (BufferedReader in = new BufferedReader(new StringReader(new String(content.bytes, this.charset)));
+						BufferedWriter out = new BufferedWriter(text)) {
+					session.apply(in, out);
+				}
+
+				bytes = text.toString().getBytes(this.charset);
+				temp = INIFiles.createTempFile(this.iniFile);
+			} catch (IOException ex) {
+				return CompletableFuture.failedFuture(ex);
+			}
+
+			// The lock can be held by a writer for as long as it takes to rewrite
+			// the whole file, so it is not waited for on the channel's thread
+			return this.write(temp, bytes).thenComposeAsync(ignored -> this.replace(content, temp), this.executor())
+					.thenCompose(replaced -> {
+						if (replaced)
+							return CompletableFuture.<Void>completedFuture(null);
+						if (attempt >= MAX_ATTEMPTS) {
+							return CompletableFuture.<Void>failedFuture(new IOException(this.iniFile
+									+ " was changed by something else during each of " + MAX_ATTEMPTS + " attempts"));
+						}
+
+						Executor later = CompletableFuture.delayedExecutor(RETRY_DELAY * attempt, TimeUnit.MILLISECONDS,
+								this.executor());
+						return CompletableFuture.supplyAsync(() -> this.attempt(session, attempt + 1), later)
+								.thenCompose(next -> next);
+					}).whenComplete((ignored, error) -> {
+						if (error != null)
+							temp.delete();
+					});
+		});
+	}
+
+	/**
+	 * Replaces the file with a temp file, if the file is still the same as when
+	 * it was read.
+	 *
+	 * @return Completes with true if the file was replaced
+	 */
+	private CompletableFuture<Boolean> replace(Content content, File temp) {
+		ReentrantLock lock = INIFiles.lock(this.iniFile);
+		lock.lock();
+		try {
+			if (!content.isCurrent(this.path))
+				return CompletableFuture.completedFuture(false);
+
+			INIFiles.replace(temp, this.iniFile);
+			return CompletableFuture.completedFuture(true);
+		} catch (IOException ex) {
+			return CompletableFuture.failedFuture(ex);
+		} finally {
+			lock.unlock();
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Returns the executor that work which may block is moved to.
+	 */
+	private Executor executor() {
+		return (this.executor != null ? this.executor : ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Reads the whole file, along with what it looked like before it was read.
+	 * A file that does not exist is read as empty.
+	 */
+	private CompletableFuture<Content> read() {
+		BasicFileAttributes attributes;
+		AsynchronousFileChannel channel;
+
+		try {
+			try {
+				attributes = Files.readAttributes(this.path, BasicFileAttributes.class);
+			} catch (NoSuchFileException ex) {
+				return CompletableFuture.completedFuture(new Content(new byte[0], null));
+			}
+
+			if (attributes.size() > Integer.MAX_VALUE)
+				throw new IOException(this.iniFile + " is too large to be read (" + attributes.size() + " bytes)");
+
+			channel = AsynchronousFileChannel.open(this.path, EnumSet.of(StandardOpenOption.READ), this.executor);
+		} catch (IOException ex) {
+			return CompletableFuture.failedFuture(ex);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate((int) attributes.size());
+		CompletableFuture<Content> future = new CompletableFuture<>();
+
+		channel.read(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+			@Override
+			public void completed(Integer read, Void ignored) {
+				if (read != -1 && buffer.hasRemaining()) {
+					channel.read(buffer, buffer.position(), null, this);
+					return;
+				}
+
+				close(channel);
+				byte[] bytes = (buffer.hasRemaining() ? Arrays.copyOf(buffer.array(), buffer.position()) : buffer.array());
+				future.complete(new Content(bytes, attributes));
+			}
+
+			@Override
+			public void failed(Throwable error, Void ignored) {
+				close(channel);
+				future.completeExceptionally(error);
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Writes bytes to the start of an empty file.
+	 */
+	private CompletableFuture<Void> write(File file, byte[] bytes) {
+		AsynchronousFileChannel channel;
+
+		try {
+			channel = AsynchronousFileChannel.open(file.toPath(), EnumSet.of(StandardOpenOption.WRITE), this.executor);
+		} catch (IOException ex) {
+			return CompletableFuture.failedFuture(ex);
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		CompletableFuture<Void> future = new CompletableFuture<>();
+
+		channel.write(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+			@Override
+			public void completed(Integer written, Void ignored) {
+				if (buffer.hasRemaining()) {
+					channel.write(buffer, buffer.position(), null, this);
+					return;
+				}
+
+				try {
+					channel.close();
+					future.complete(null);
+				} catch (IOException ex) {
+					future.completeExceptionally(ex);
+				}
+			}
+
+			@Override
+			public void failed(Throwable error, Void ignored) {
+				close(channel);
+				future.completeExceptionally(error);
+			}
+		});
+
+		return future;
+	}
+
+	private static void close(AsynchronousFileChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException ex) {
+			// Nothing was written, so the content is not affected
+		}
+	}
+
+	/**
+	 * Returns the INI file that is being read and changed.
+	 *
+	 * @return The INI file
+	 */
+	public File getINIFile() {
+		return this.iniFile;
+	}
+
+	/**
+	 * The content of the file, and its attributes from just before it was read.
+	 */
+	private static class Content {
+		final byte[] bytes;
+
+		/**
+		 * Null if the file did not exist
+		 */
+		final BasicFileAttributes attributes;
+
+		Content(byte[] bytes, BasicFileAttributes attributes) {
+			this.bytes = bytes;
+			this.attributes = attributes;
+		}
+
+		/**
+		 * Checks if the file is still the same as when it was read. The writers of
+		 * this library replace the file with a new one, make it longer or move its
+		 * modification time forward, so they always change its file key, size or
+		 * modification time.
+		 */
+		boolean isCurrent(Path path) throws IOException {
+			BasicFileAttributes now;
+			try {
+				now = Files.readAttributes(path, BasicFileAttributes.class);
+			} catch (NoSuchFileException ex) {
+				return this.attributes == null;
+			}
+
+			return this.attributes != null
+					&& now.size() == this.attributes.size()
+					&& now.lastModifiedTime().equals(this.attributes.lastModifiedTime())
+					&& Objects.equals(now.fileKey(), this.attributes.fileKey());
+		}
+	}
+}
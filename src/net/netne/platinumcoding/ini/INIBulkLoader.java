@@ -0,0 +1,316 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is used for parsing a large number of INI files at once, such as
+ * every INI file in a directory.
+ * <br /><br />
+ * Every file is parsed by its own task. When the JVM supports virtual threads,
+ * every task runs on its own virtual thread, and otherwise the tasks share a pool
+ * of threads. In both cases, at most a certain number of files are read at the
+ * same time, so that the disk is not flooded with requests.
+ * <br /><br />
+ * A file that cannot be read does not stop the other files from being loaded.
+ * Its error is kept in the {@link Result} instead, next to the documents of the
+ * files that were loaded. If the thread that is loading the files is interrupted,
+ * the loading stops, the interrupt flag is left set and the result holds the
+ * files that were not loaded yet, so it can be told from a complete result with
+ * {@link Result#isComplete()}.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * INIBulkLoader loader = new INIBulkLoader(32);
+ * INIBulkLoader.Result result = loader.load(new java.io.File("tenants"), "*.ini");
+ *
+ * for (Map.Entry<Path, IOException> error : result.getErrors().entrySet())
+ *	System.out.println("Could not load " + error.getKey() + ": " + error.getValue());
+ *
+ * System.out.println("Loaded " + result.getDocuments().size() + " files in "
+ *	+ result.getElapsed().toMillis() + " ms");
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * @author Dealer Next Door
+ */
+public class INIBulkLoader {
+	/**
+	 * How long the tasks of an interrupted load are given to stop, in
+	 * milliseconds
+	 */
+	private static final long SHUTDOWN_WAIT = 1000;
+
+	/**
+	 * The most files that are read at the same time
+	 */
+	private final int concurrency;
+
+	/**
+	 * Creates a loader that reads at most 64 files at the same time.
+	 */
+	public INIBulkLoader() {
+		this(64);
+	}
+
+	/**
+	 * Creates a loader.
+	 *
+	 * @param concurrency The most files that are read at the same time
+	 */
+	public INIBulkLoader(int concurrency) {
+		if (concurrency <= 0)
+			throw new IllegalArgumentException("concurrency must be positive: " + concurrency);
+
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Loads every file in a directory whose name ends with ".ini". Directories
+	 * within the directory are not searched.
+	 *
+	 * @param directory The directory to load the files from
+	 * @return The loaded documents and the errors of the files that could not be
+	 * loaded
+	 * @throws IOException If the directory could not be listed
+	 */
+	public Result load(File directory) throws IOException {
+		return this.load(directory, "*.ini");
+	}
+
+	/**
+	 * Loads every file in a directory whose name matches a glob pattern, such
+	 * as "tenant-*.ini". Directories within the directory are not searched.
+	 *
+	 * @param directory	The directory to load the files from
+	 * @param glob		The pattern that the file names have to match
+	 * @return The loaded documents and the errors of the files that could not be
+	 * loaded
+	 * @throws IOException If the directory could not be listed
+	 */
+	public Result load(File directory, String glob) throws IOException {
+		ArrayList<File> files = new ArrayList<>();
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath(), glob)) {
+			for (Path path : stream) {
+				if (Files.isRegularFile(path))
+					files.add(path.toFile());
+			}
+		}
+
+		return this.load(files);
+	}
+
+	/**
+	 * Loads every file in a collection.
+	 *
+	 * @param files The files to be loaded
+	 * @return The loaded documents and the errors of the files that could not be
+	 * loaded
+	 */
+	public Result load(Collection<File> files) {
+		long start = System.nanoTime();
+		ConcurrentHashMap<Path, INIDocument> documents = new ConcurrentHashMap<>();
+		ConcurrentHashMap<Path, IOException> errors = new ConcurrentHashMap<>();
+		ConcurrentHashMap<Path, Long> times = new ConcurrentHashMap<>();
+		Semaphore permits = new Semaphore(this.concurrency);
+
+		ExecutorService executor = newExecutor(this.concurrency);
+		try {
+			List<Future<?>> tasks = new ArrayList<>(files.size());
+
+			for (File file : files) {
+				tasks.add(executor.submit(() -> {
+					Path path = file.toPath();
+					long loadStart = System.nanoTime();
+
+					try {
+						permits.acquire();
+						try {
+							documents.put(path, INIDocument.load(file));
+						} finally {
+							permits.release();
+						}
+					} catch (ClosedByInterruptException | InterruptedIOException ex) {
+						// The load was stopped, so the file is left unfinished
+						// instead of failed
+						return;
+					} catch (IOException ex) {
+						errors.put(path, ex);
+					} catch (InterruptedException ex) {
+						return;
+					}
+
+					times.put(path, System.nanoTime() - loadStart);
+				}));
+			}
+
+			for (Future<?> task : tasks) {
+				try {
+					task.get();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					break;
+				} catch (ExecutionException ex) {
+					// Only unchecked exceptions get here, which are not caught so
+					// that bugs are not hidden
+					Throwable cause = ex.getCause();
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					throw (Error) cause;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+
+			// A task that is still running could add its file after the results
+			// are taken, so the tasks are given a moment to stop. The interrupt
+			// flag is cleared while waiting, or the wait would end right away.
+			boolean interrupted = Thread.interrupted();
+			try {
+				executor.awaitTermination(SHUTDOWN_WAIT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		long elapsed = System.nanoTime() - start;
+		TreeMap<Path, INIDocument> loaded = new TreeMap<>(documents);
+		TreeMap<Path, IOException> failed = new TreeMap<>(errors);
+		ArrayList<Path> unfinished = new ArrayList<>();
+
+		for (File file : files) {
+			Path path = file.toPath();
+			if (!loaded.containsKey(path) && !failed.containsKey(path))
+				unfinished.add(path);
+		}
+
+		return new Result(loaded, failed, times, unfinished, elapsed);
+	}
+
+	/**
+	 * Creates an executor that runs every task on its own virtual thread, or a
+	 * pool of platform threads if the JVM does not have virtual threads.
+	 */
+	private static ExecutorService newExecutor(int threads) {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			return Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = new Thread(runnable, "INIBulkLoader");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * Returns the most files that are read at the same time.
+	 *
+	 * @return The concurrency of the loader
+	 */
+	public int getConcurrency() {
+		return this.concurrency;
+	}
+
+	/**
+	 * The outcome of loading many files at once.
+	 */
+	public static class Result {
+		private final Map<Path, INIDocument> documents;
+		private final Map<Path, IOException> errors;
+		private final Map<Path, Long> times;
+		private final List<Path> unfinished;
+		private final long elapsed;
+
+		Result(Map<Path, INIDocument> documents, Map<Path, IOException> errors, Map<Path, Long> times,
+				List<Path> unfinished, long elapsed) {
+			this.documents = Collections.unmodifiableMap(new TreeMap<>(documents));
+			this.errors = Collections.unmodifiableMap(new TreeMap<>(errors));
+			this.times = Collections.unmodifiableMap(new TreeMap<>(times));
+			this.unfinished = Collections.unmodifiableList(new ArrayList<>(unfinished));
+			this.elapsed = elapsed;
+		}
+
+		/**
+		 * Checks if every file was either loaded or failed to load. A result is
+		 * only incomplete if the load was interrupted.
+		 *
+		 * @return True if no file is missing from the result
+		 */
+		public boolean isComplete() {
+			return this.unfinished.isEmpty();
+		}
+
+		/**
+		 * Returns the files that were neither loaded nor failed to load, because
+		 * the load was interrupted.
+		 *
+		 * @return An unmodifiable list of the paths of the files, in the order
+		 * they were given
+		 */
+		public List<Path> getUnfinished() {
+			return this.unfinished;
+		}
+
+		/**
+		 * Returns the documents of the files that were loaded.
+		 *
+		 * @return An unmodifiable map of the documents, by path
+		 */
+		public Map<Path, INIDocument> getDocuments() {
+			return this.documents;
+		}
+
+		/**
+		 * Returns the errors of the files that could not be loaded.
+		 *
+		 * @return An unmodifiable map of the errors, by path
+		 */
+		public Map<Path, IOException> getErrors() {
+			return this.errors;
+		}
+
+		/**
+		 * Returns how long each file took to load, in nanoseconds, including the
+		 * time spent waiting for other files to be read.
+		 *
+		 * @return An unmodifiable map of the load times, by path
+		 */
+		public Map<Path, Long> getLoadTimes() {
+			return this.times;
+		}
+
+		/**
+		 * Returns how long it took to load all of the files.
+		 *
+		 * @return The time from the start of the load until every file was loaded
+		 */
+		public Duration getElapsed() {
+			return Duration.ofNanos(this.elapsed);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This class is used to describe how the elements of an INI file have changed
+ * between two versions of the file.
+ * <br /><br />
+ * An element is added if its category and key were not in the old version,
+ * removed if they are not in the new version, and changed if they are in both
+ * versions but the value is different. Just like {@link INIDocument}, only the
+ * first occurrence of a category, and of a key within it, is compared.
+ * <br /><br />
+ * The elements of an event are the elements of the two documents, not copies,
+ * and are shared with every other listener of the same change.
+ *
+ * @author Dealer Next Door
+ */
+public class INIChangeEvent {
+	/**
+	 * The INI file that has changed.
+	 */
+	private final File iniFile;
+
+	/**
+	 * The version of the file before and after the change
+	 */
+	private final INIDocument oldDocument, newDocument;
+
+	/**
+	 * The elements that have changed, as they are in the new version of the file,
+	 * except for the removed elements, which are as they were in the old version.
+	 */
+	private final List<INIElement> added, removed, changed;
+
+	/**
+	 * Creates an event for elements that have already been compared.
+	 *
+	 * @param file			The INI file that has changed
+	 * @param oldDocument	The version of the file before the change, or null
+	 * @param newDocument	The version of the file after the change, or null
+	 * @param added			The elements that were added
+	 * @param removed		The elements that were removed
+	 * @param changed		The elements whose values changed
+	 */
+	INIChangeEvent(File file, INIDocument oldDocument, INIDocument newDocument,
+			List<INIElement> added, List<INIElement> removed, List<INIElement> changed) {
+		this.iniFile = file;
+		this.oldDocument = oldDocument;
+		this.newDocument = newDocument;
+		this.added = Collections.unmodifiableList(added);
+		this.removed = Collections.unmodifiableList(removed);
+		this.changed = Collections.unmodifiableList(changed);
+	}
+
+	/**
+	 * Compares two versions of an INI file.
+	 *
+	 * @param file			The INI file that has changed
+	 * @param oldDocument	The version of the file before the change
+	 * @param newDocument	The version of the file after the change
+	 * @return The differences between the two versions
+	 */
+	static INIChangeEvent between(File file, INIDocument oldDocument, INIDocument newDocument) {
+		ArrayList<INIElement> added = new ArrayList<>();
+		ArrayList<INIElement> removed = new ArrayList<>();
+		ArrayList<INIElement> changed = new ArrayList<>();
+
+		for (INIDocument.Section section : newDocument.sections()) {
+			INIDocument.Section old = oldDocument.section(section.name);
+
+			for (INIElement after : section.elements) {
+				// Repeated keys are not compared
+				if (section.keys.get(after.getKey()) != after)
+					continue;
+
+				INIElement before = (old != null ? old.keys.get(after.getKey()) : null);
+				if (before == null)
+					added.add(after);
+				else if (!Objects.equals(before.getValue(), after.getValue()))
+					changed.add(after);
+			}
+		}
+
+		for (INIDocument.Section section : oldDocument.sections()) {
+			INIDocument.Section current = newDocument.section(section.name);
+
+			for (INIElement before : section.elements) {
+				if (section.keys.get(before.getKey()) != before)
+					continue;
+
+				if (current == null || !current.keys.containsKey(before.getKey()))
+					removed.add(before);
+			}
+		}
+
+		return new INIChangeEvent(file, oldDocument, newDocument, added, removed, changed);
+	}
+
+	/**
+	 * Checks if no elements were added, removed or changed.
+	 *
+	 * @return True if nothing has changed
+	 */
+	public boolean isEmpty() {
+		return this.added.isEmpty() && this.removed.isEmpty() && this.changed.isEmpty();
+	}
+
+	/**
+	 * Returns the elements that were added to the file.
+	 *
+	 * @return An unmodifiable list of the new elements
+	 */
+	public List<INIElement> getAdded() {
+		return this.added;
+	}
+
+	/**
+	 * Returns the elements that were removed from the file, as they were before
+	 * they were removed.
+	 *
+	 * @return An unmodifiable list of the removed elements
+	 */
+	public List<INIElement> getRemoved() {
+		return this.removed;
+	}
+
+	/**
+	 * Returns the elements whose values have changed, with their new values.
+	 *
+	 * @return An unmodifiable list of the changed elements
+	 */
+	public List<INIElement> getChanged() {
+		return this.changed;
+	}
+
+	/**
+	 * Returns the version of the file before the change.
+	 *
+	 * @return The old version of the file, or null if it is not known
+	 */
+	public INIDocument getOldDocument() {
+		return this.oldDocument;
+	}
+
+	/**
+	 * Returns the version of the file after the change.
+	 *
+	 * @return The new version of the file, or null if it is not known
+	 */
+	public INIDocument getNewDocument() {
+		return this.newDocument;
+	}
+
+	/**
+	 * Returns the INI file that has changed.
+	 *
+	 * @return The INI file that has changed
+	 */
+	public File getINIFile() {
+		return this.iniFile;
+	}
+}
@@ -0,0 +1,17 @@
+package net.netne.platinumcoding.ini;
+
+/**
+ * This interface is used for being told when the elements of an INI file have
+ * changed. See {@link INIWatcher}.
+ * 
+ * @author Dealer Next Door
+ */
+@FunctionalInterface
+public interface INIChangeListener {
+	/**
+	 * Called after the elements of an INI file have changed.
+	 * 
+	 * @param event The elements that were added, removed and changed
+	 */
+	void changed(INIChangeEvent event);
+}
@@ -0,0 +1,380 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * This class is used to hold a very large INI file in memory using as little
+ * memory as possible.
+ * <br /><br />
+ * An {@link INIDocument} keeps an {@link INIElement} for every element, and every
+ * element has its own key, value and category. For files with millions of
+ * elements, that takes many times more memory than the file itself. The
+ * INICompactDocument instead keeps:
+ * <ul>
+ * <li>the INI file once, for the whole document</li>
+ * <li>the name of every category once</li>
+ * <li>every different key once, no matter how many categories use it</li>
+ * <li>every value as a position in a single byte array, holding all of the
+ * values one after another</li>
+ * </ul>
+ * INIElements and value Strings are only created when they are asked for, and
+ * are not kept by the document.
+ * <br /><br />
+ * With 1,000,000 elements of the form {@code keyN=valueN}, spread across 1,000
+ * categories that reuse the same 1,000 keys (an 18 MB file), an INIDocument uses
+ * about 150 bytes of heap per element, and an INICompactDocument about 31 bytes
+ * per element, 11 of which are the values themselves. These were measured on a
+ * 64-bit JVM with compressed references.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * INICompactDocument document = INICompactDocument.load(new java.io.File("Huge.ini"));
+ *
+ * String width = document.getValue("Window", "Width");
+ * INIElement height = document.get("Window", "Height");
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * The same lines are skipped as by {@link INIDocument}, and only the first
+ * occurrence of a category, and of a key within it, can be looked up.
+ *
+ * @author Dealer Next Door
+ */
+public class INICompactDocument {
+	/**
+	 * The INI file that this document was parsed from.
+	 */
+	private final File iniFile;
+
+	/**
+	 * The character set that the values are written in
+	 */
+	private final Charset charset;
+
+	/**
+	 * The index of every category, by name, in file order
+	 */
+	private final LinkedHashMap<String, Integer> categories;
+
+	/**
+	 * The name of every category, and the index of its first element and the
+	 * element after its last one
+	 */
+	private final String[] categoryNames;
+	private final int[] categoryStart, categoryEnd;
+
+	/**
+	 * Every different key in the file
+	 */
+	private final String[] keys;
+
+	/**
+	 * For every element, the index of its key, the position of its value and
+	 * the length of its value, one after another
+	 */
+	private final int[] entries;
+
+	/**
+	 * Every value in the file, one after another
+	 */
+	private final byte[] values;
+
+	/**
+	 * An open addressing hash table of the elements, by category and key. Holds
+	 * the index of an element plus one, or 0 for an empty slot.
+	 */
+	private final int[] table;
+
+	/**
+	 * The total number of category headers, including duplicates
+	 */
+	private final int categoryCount;
+
+	private INICompactDocument(File file, Charset charset, Builder builder) {
+		this.iniFile = file;
+		this.charset = charset;
+		this.categories = builder.categories;
+		this.categoryNames = builder.categoryNames.toArray(new String[0]);
+		this.categoryStart = Arrays.copyOf(builder.categoryStart, this.categoryNames.length);
+		this.categoryEnd = Arrays.copyOf(builder.categoryEnd, this.categoryNames.length);
+		this.keys = builder.keys.toArray(new String[0]);
+		this.entries = Arrays.copyOf(builder.entries, builder.elementCount * 3);
+		this.values = Arrays.copyOf(builder.values, builder.valueLength);
+		this.categoryCount = builder.categoryCount;
+
+		this.table = new int[INIHashTables.tableSize(builder.elementCount)];
+
+		for (int c = 0; c < this.categoryNames.length; c++) {
+			for (int e = this.categoryStart[c]; e < this.categoryEnd[c]; e++) {
+				String key = this.keys[this.entries[e * 3]];
+				if (this.find(c, key) == -1)
+					INIHashTables.insert(this.table, INIHashTables.hash(c, key), e);
+			}
+		}
+	}
+
+	/**
+	 * Parses the specified INI file into a compact document, in the platform's
+	 * default character set.
+	 *
+	 * @param file The INI file to be parsed
+	 * @return The parsed document
+	 * @throws IOException If the file could not be read
+	 */
+	public static INICompactDocument load(File file) throws IOException {
+		return load(file, Charset.defaultCharset());
+	}
+
+	/**
+	 * Parses the specified INI file into a compact document.
+	 *
+	 * @param file		The INI file to be parsed
+	 * @param charset	The character set that the file is written in
+	 * @return The parsed document
+	 * @throws IOException If the file could not be read
+	 */
+	public static INICompactDocument load(File file, Charset charset) throws IOException {
+		INIMappedParser parser = new INIMappedParser(file, INIMappedParser.map(file), charset);
+		Builder builder = new Builder();
+		int limit = parser.size();
+		boolean inCategory = false;
+
+		for (int pos = 0; pos < limit; pos = parser.nextLine(pos)) {
+			byte first = parser.byteAt(pos);
+			int end = parser.lineEnd(pos);
+
+			// Comments and blank lines
+			if (pos == end || first == ';' || first == '#')
+				continue;
+
+			if (first == '[') {
+				inCategory = builder.category(parser.categoryName(pos, end));
+				continue;
+			}
+
+			int split = parser.indexOf((byte) '=', pos, end);
+			if (inCategory && split != -1)
+				builder.element(parser.decode(pos, split), parser, split + 1, end);
+		}
+
+		builder.finish();
+		return new INICompactDocument(file, charset, builder);
+	}
+
+	/**
+	 * Gets a single element from a category. A new INIElement is created every
+	 * time this is called.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @return The element, or null if it does not exist
+	 */
+	public INIElement get(String category, String key) {
+		Integer index = this.categories.get(category);
+		int entry = (index != null ? this.find(index, key) : -1);
+
+		return (entry != -1 ? this.element(index, entry) : null);
+	}
+
+	/**
+	 * Gets the value of a single element from a category.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @return The value of the element, or null if it does not exist
+	 */
+	public String getValue(String category, String key) {
+		Integer index = this.categories.get(category);
+		int entry = (index != null ? this.find(index, key) : -1);
+
+		return (entry != -1 ? this.value(entry) : null);
+	}
+
+	/**
+	 * Returns an array list with all of the elements in a specific category.
+	 * New INIElements are created every time this is called.
+	 *
+	 * @param category The specified category to look under
+	 * @return An ArrayList of INIElements, or null if the category has no elements
+	 */
+	public ArrayList<INIElement> getElements(String category) {
+		Integer index = this.categories.get(category);
+		if (index == null || this.categoryStart[index] == this.categoryEnd[index])
+			return null;
+
+		ArrayList<INIElement> elements = new ArrayList<>(this.categoryEnd[index] - this.categoryStart[index]);
+		for (int e = this.categoryStart[index]; e < this.categoryEnd[index]; e++)
+			elements.add(this.element(index, e));
+
+		return elements;
+	}
+
+	/**
+	 * Checks if the document contains the specified category.
+	 *
+	 * @param category The category to look for
+	 * @return True if the category exists
+	 */
+	public boolean hasCategory(String category) {
+		return this.categories.containsKey(category);
+	}
+
+	/**
+	 * Returns the names of every category, in the order they appear in the file.
+	 *
+	 * @return An unmodifiable set of category names
+	 */
+	public Set<String> getCategories() {
+		return Collections.unmodifiableSet(this.categories.keySet());
+	}
+
+	/**
+	 * Returns the total amount of headers within the INI file.
+	 *
+	 * @return The total number of categories within the INI file
+	 */
+	public int getCategoryCount() {
+		return this.categoryCount;
+	}
+
+	/**
+	 * Returns the total amount of elements held by this document.
+	 *
+	 * @return The total number of elements
+	 */
+	public int getElementCount() {
+		return this.entries.length / 3;
+	}
+
+	/**
+	 * Returns the INI file that this document was parsed from.
+	 *
+	 * @return The INI file of this document
+	 */
+	public File getINIFile() {
+		return this.iniFile;
+	}
+
+	/**
+	 * Finds the first element with a key in a category.
+	 *
+	 * @return The index of the element, or -1 if it does not exist
+	 */
+	private int find(int category, String key) {
+		int mask = this.table.length - 1;
+
+		for (int slot = INIHashTables.hash(category, key) & mask; ; slot = (slot + 1) & mask) {
+			int entry = this.table[slot] - 1;
+			if (entry == -1)
+				return -1;
+
+			if (entry >= this.categoryStart[category] && entry < this.categoryEnd[category]
+					&& this.keys[this.entries[entry * 3]].equals(key))
+				return entry;
+		}
+	}
+
+	private INIElement element(int category, int entry) {
+		return new INIElement(this.iniFile, this.categoryNames[category],
+				this.keys[this.entries[entry * 3]], this.value(entry));
+	}
+
+	private String value(int entry) {
+		return new String(this.values, this.entries[entry * 3 + 1], this.entries[entry * 3 + 2], this.charset);
+	}
+
+	/**
+	 * Collects the categories, keys and values of a file while it is parsed.
+	 */
+	private static class Builder {
+		final LinkedHashMap<String, Integer> categories = new LinkedHashMap<>();
+		final ArrayList<String> categoryNames = new ArrayList<>();
+		int[] categoryStart = new int[16], categoryEnd = new int[16];
+
+		final HashMap<String, Integer> keyIds = new HashMap<>();
+		final ArrayList<String> keys = new ArrayList<>();
+
+		int[] entries = new int[3 * 64];
+		int elementCount;
+
+		byte[] values = new byte[1024];
+		int valueLength;
+
+		int categoryCount;
+
+		/**
+		 * The index of the category that elements are being added to, or -1
+		 */
+		int current = -1;
+
+		/**
+		 * Starts a new category.
+		 *
+		 * @return False if the category is repeated, and its elements are ignored
+		 */
+		boolean category(String name) {
+			this.categoryCount++;
+			this.finish();
+
+			if (this.categories.containsKey(name))
+				return false;
+
+			this.current = this.categoryNames.size();
+			if (this.current == this.categoryStart.length) {
+				this.categoryStart = Arrays.copyOf(this.categoryStart, this.current * 2);
+				this.categoryEnd = Arrays.copyOf(this.categoryEnd, this.current * 2);
+			}
+
+			this.categories.put(name, this.current);
+			this.categoryNames.add(name);
+			this.categoryStart[this.current] = this.elementCount;
+			return true;
+		}
+
+		void element(String key, INIMappedParser parser, int from, int to) {
+			Integer keyId = this.keyIds.get(key);
+			if (keyId == null) {
+				keyId = this.keys.size();
+				this.keyIds.put(key, keyId);
+				this.keys.add(key);
+			}
+
+			int length = to - from;
+			if (this.valueLength + length > this.values.length)
+				this.values = Arrays.copyOf(this.values, Math.max(this.values.length * 2, this.valueLength + length));
+			for (int i = 0; i < length; i++)
+				this.values[this.valueLength + i] = parser.byteAt(from + i);
+
+			if (this.elementCount * 3 == this.entries.length)
+				this.entries = Arrays.copyOf(this.entries, this.entries.length * 2);
+
+			int e = this.elementCount * 3;
+			this.entries[e] = keyId;
+			this.entries[e + 1] = this.valueLength;
+			this.entries[e + 2] = length;
+
+			this.valueLength += length;
+			this.elementCount++;
+		}
+
+		/**
+		 * Ends the category that elements are being added to.
+		 */
+		void finish() {
+			if (this.current != -1)
+				this.categoryEnd[this.current] = this.elementCount;
+			this.current = -1;
+		}
+	}
+}
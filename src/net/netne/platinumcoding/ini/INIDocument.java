@@ -0,0 +1,599 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * This class is used to hold an entire INI file in memory after it has been
+ * parsed a single time.
+ * <br /><br />
+ * Every call to {@link INIReader#getElements(String)} opens the file and scans it
+ * line by line. If you are reading many keys from the same file, it is much
+ * cheaper to parse the file once with {@link #load(File)} and then look up
+ * categories and keys from the INIDocument, which keeps every category in a hash
+ * index.
+ * <br /><br />
+ * The following text is content of the file "Example.ini", which is used in
+ * all of the examples:
+ * <br /><br />
+ * <pre>
+ * {@code
+ * ; Window properties
+ * [Window]
+ * Width=640
+ * Height=480
+ *
+ * ; Render properties
+ * [Properties]
+ * vSync=true
+ * DoubleBuffer=true
+ * }
+ * </pre>
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * INIDocument document = INIDocument.load(new java.io.File("Example.ini"));
+ *
+ * // Looking up a single element
+ * INIElement width = document.get("Window", "Width");
+ * System.out.println(width.getKey() + " = " + width.getValue());
+ *
+ * // Listing all of the categories
+ * for (String category : document.getCategories())
+ *	System.out.println(category);
+ *
+ * // An INIReader can also read from the document instead of the file
+ * INIReader reader = new INIReader(document);
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * Which would output:
+ *
+ * <pre>
+ * {@code
+ * Width = 640
+ * Window
+ * Properties
+ * }
+ * </pre>
+ *
+ * If a category appears more than once in the file, only the first occurrence
+ * is used for lookups, the same as {@link INIReader#getElements(String)}, but
+ * every occurrence is still counted by {@link #getCategoryCount()}. Blank lines,
+ * comments and lines without an '=' are not stored.
+ * <br /><br />
+ * Many categories can be read with a single call, either by name with
+ * {@link #getElements(Collection)}, or by the start of their names with
+ * {@link #getElementsWithPrefix(String)}. The elements of a category can also be
+ * found by the start of their keys, with
+ * {@link #getElementsWithKeyPrefix(String, String)}. The names are sorted the
+ * first time they are searched by prefix, so later searches only look at the
+ * names that match.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // Every category from [tenant.a] to [tenant.z]
+ * for (Map.Entry<String, ArrayList<INIElement>> tenant : document.getElementsWithPrefix("tenant.").entrySet())
+ *	System.out.println(tenant.getKey() + ": " + tenant.getValue().size());
+ * }
+ * </pre>
+ *
+ * @author Dealer Next Door
+ */
+public class INIDocument {
+	/**
+	 * The INI file that this document was parsed from.
+	 */
+	private final File iniFile;
+
+	/**
+	 * Every category in the file, in the order that they were first found
+	 */
+	private final LinkedHashMap<String, Section> categories;
+
+	/**
+	 * The total number of category headers, including duplicates
+	 */
+	private final int categoryCount;
+
+	/**
+	 * The total number of elements stored in this document
+	 */
+	private final int elementCount;
+
+	/**
+	 * The number of lines in the file, including comments and blank lines
+	 */
+	private final int lines;
+
+	/**
+	 * Every category sorted by name, made the first time it is searched by prefix
+	 */
+	private volatile TreeMap<String, Section> sorted;
+
+	/**
+	 * Creates a document from categories that have already been parsed.
+	 *
+	 * @param file			The INI file that the categories were read from
+	 * @param categories	The parsed categories
+	 * @param count			The total number of category headers in the file
+	 * @param elements		The total number of elements in the categories
+	 * @param lines			The number of lines that the categories were read from
+	 */
+	INIDocument(File file, LinkedHashMap<String, Section> categories, int count, int elements, int lines) {
+		this.iniFile = file;
+		this.categories = categories;
+		this.categoryCount = count;
+		this.elementCount = elements;
+		this.lines = lines;
+	}
+
+	/**
+	 * Parses the specified INI file into a document.
+	 *
+	 * @param file The INI file to be parsed
+	 * @return The parsed document
+	 * @throws IOException If the file could not be read
+	 */
+	public static INIDocument load(File file) throws IOException {
+		INIInstrumentation.ParseEvent event = INIInstrumentation.parse(file);
+		Builder builder = new Builder(file);
+
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			read(in, builder);
+		}
+
+		event.finish(file.length(), builder.lines);
+		return builder.build();
+	}
+
+	/**
+	 * Parses every line from a reader into a document.
+	 *
+	 * @param file	The INI file that the lines belong to
+	 * @param in	The reader to read the lines from
+	 * @return The parsed document
+	 * @throws IOException If the lines could not be read
+	 */
+	static INIDocument parse(File file, BufferedReader in) throws IOException {
+		Builder builder = new Builder(file);
+		read(in, builder);
+		return builder.build();
+	}
+
+	/**
+	 * Adds every line from a reader to a builder.
+	 */
+	private static void read(BufferedReader in, Builder builder) throws IOException {
+		String string;
+
+		while ((string = in.readLine()) != null) {
+			builder.lines++;
+
+			// Ignoring comments and blank lines
+			if (string.equals("") || string.charAt(0) == ';' || string.charAt(0) == '#')
+				continue;
+
+			if (string.charAt(0) == '[') {
+				builder.category(string.length() > 1 ? string.substring(1, string.length() - 1) : "");
+				continue;
+			}
+
+			int pos = string.indexOf('=');
+			if (pos != -1)
+				builder.element(string.substring(0, pos), string.substring(pos + 1));
+		}
+	}
+
+	/**
+	 * Joins documents that were parsed from consecutive parts of the same file
+	 * into a single document. A category that is in more than one part keeps
+	 * the elements of the part that comes first.
+	 *
+	 * @param file	The INI file that the parts were parsed from
+	 * @param parts	The parsed parts, in file order
+	 * @return The document of the whole file
+	 */
+	static INIDocument join(File file, List<INIDocument> parts) {
+		LinkedHashMap<String, Section> categories = new LinkedHashMap<>();
+		int count = 0;
+		int elements = 0;
+		int lines = 0;
+
+		for (INIDocument part : parts) {
+			count += part.categoryCount;
+			lines += part.lines;
+
+			for (Section section : part.categories.values()) {
+				if (categories.putIfAbsent(section.name, section) == null)
+					elements += section.elements.size();
+			}
+		}
+
+		return new INIDocument(file, categories, count, elements, lines);
+	}
+
+	/**
+	 * Returns an array list with all of the elements in a specific category.
+	 * The list is a copy, so changing it does not change the document.
+	 *
+	 * @param category The specified category to look under
+	 * @return An ArrayList of INIElements, or null if the category has no elements
+	 */
+	public ArrayList<INIElement> getElements(String category) {
+		Section section = this.categories.get(category);
+		if (section == null || section.elements.isEmpty())
+			return null;
+
+		return new ArrayList<>(section.elements);
+	}
+
+	/**
+	 * Returns the elements of many categories at once. Categories that are not
+	 * in the document, or have no elements, are left out.
+	 *
+	 * @param categories The categories to look under
+	 * @return The elements of every category, by category, in the order the
+	 * categories were asked for
+	 */
+	public LinkedHashMap<String, ArrayList<INIElement>> getElements(Collection<String> categories) {
+		LinkedHashMap<String, ArrayList<INIElement>> result = new LinkedHashMap<>();
+
+		for (String category : categories) {
+			ArrayList<INIElement> elements = this.getElements(category);
+			if (elements != null)
+				result.put(category, elements);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the elements of every category whose name starts with a prefix,
+	 * such as every category starting with "tenant.". Categories with no elements
+	 * are left out.
+	 *
+	 * @param prefix The start of the category names
+	 * @return The elements of every matching category, by category, sorted by
+	 * name
+	 */
+	public TreeMap<String, ArrayList<INIElement>> getElementsWithPrefix(String prefix) {
+		TreeMap<String, ArrayList<INIElement>> result = new TreeMap<>();
+
+		for (Section section : prefixed(this.sorted(), prefix).values()) {
+			if (!section.elements.isEmpty())
+				result.put(section.name, new ArrayList<>(section.elements));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the elements of a category whose keys start with a prefix. If a
+	 * key is repeated, only its first element is returned.
+	 *
+	 * @param category	The category to look under
+	 * @param prefix	The start of the keys
+	 * @return The matching elements, sorted by key, or null if there are none
+	 */
+	public ArrayList<INIElement> getElementsWithKeyPrefix(String category, String prefix) {
+		Section section = this.categories.get(category);
+		if (section == null)
+			return null;
+
+		ArrayList<INIElement> elements = new ArrayList<>(prefixed(section.sorted(), prefix).values());
+		return (elements.isEmpty() ? null : elements);
+	}
+
+	/**
+	 * Returns the categories sorted by name, sorting them the first time.
+	 */
+	private TreeMap<String, Section> sorted() {
+		TreeMap<String, Section> sorted = this.sorted;
+		if (sorted == null) {
+			sorted = new TreeMap<>(this.categories);
+			this.sorted = sorted;
+		}
+
+		return sorted;
+	}
+
+	/**
+	 * Returns the part of a sorted map whose keys start with a prefix.
+	 *
+	 * @param map		The sorted map
+	 * @param prefix	The start of the keys
+	 * @return A view of the matching entries
+	 */
+	static <V> Map<String, V> prefixed(TreeMap<String, V> map, String prefix) {
+		if (prefix.isEmpty())
+			return map;
+
+		// Every key that starts with the prefix comes before the prefix with its
+		// last character increased by one
+		char last = prefix.charAt(prefix.length() - 1);
+		if (last == Character.MAX_VALUE)
+			return map.tailMap(prefix, true);
+
+		return map.subMap(prefix, true, prefix.substring(0, prefix.length() - 1) + (char) (last + 1), false);
+	}
+
+	/**
+	 * Gets a single element from a category.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @return The element, or null if it does not exist
+	 */
+	public INIElement get(String category, String key) {
+		Section section = this.categories.get(category);
+		return (section != null ? section.keys.get(key) : null);
+	}
+
+	/**
+	 * Gets the value of an element as a String.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @param def		The value to return if the element does not exist
+	 * @return The value of the element, or the default value
+	 */
+	public String getString(String category, String key, String def) {
+		INIElement element = this.get(category, key);
+		return (element != null ? element.getString(def) : def);
+	}
+
+	/**
+	 * Gets the value of an element as an int. See {@link INIElement#getInt(int)}.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @param def		The value to return if the element does not exist or is
+	 * not an int
+	 * @return The value of the element, or the default value
+	 */
+	public int getInt(String category, String key, int def) {
+		INIElement element = this.get(category, key);
+		return (element != null ? element.getInt(def) : def);
+	}
+
+	/**
+	 * Gets the value of an element as a long. See {@link INIElement#getLong(long)}.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @param def		The value to return if the element does not exist or is
+	 * not a long
+	 * @return The value of the element, or the default value
+	 */
+	public long getLong(String category, String key, long def) {
+		INIElement element = this.get(category, key);
+		return (element != null ? element.getLong(def) : def);
+	}
+
+	/**
+	 * Gets the value of an element as a double. See
+	 * {@link INIElement#getDouble(double)}.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @param def		The value to return if the element does not exist or is
+	 * not a number
+	 * @return The value of the element, or the default value
+	 */
+	public double getDouble(String category, String key, double def) {
+		INIElement element = this.get(category, key);
+		return (element != null ? element.getDouble(def) : def);
+	}
+
+	/**
+	 * Gets the value of an element as a boolean. See
+	 * {@link INIElement#getBoolean(boolean)}.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @param def		The value to return if the element does not exist or is
+	 * not a boolean
+	 * @return The value of the element, or the default value
+	 */
+	public boolean getBoolean(String category, String key, boolean def) {
+		INIElement element = this.get(category, key);
+		return (element != null ? element.getBoolean(def) : def);
+	}
+
+	/**
+	 * Checks if the document contains the specified category.
+	 *
+	 * @param category The category to look for
+	 * @return True if the category exists
+	 */
+	public boolean hasCategory(String category) {
+		return this.categories.containsKey(category);
+	}
+
+	/**
+	 * Returns the names of every category, in the order they appear in the file.
+	 *
+	 * @return An unmodifiable set of category names
+	 */
+	public Set<String> getCategories() {
+		return Collections.unmodifiableSet(this.categories.keySet());
+	}
+
+	/**
+	 * Returns the total amount of headers within the INI file, the same as
+	 * {@link INIReader#getCategoryCount()}.
+	 *
+	 * @return The total number of categories within the INI file
+	 */
+	public int getCategoryCount() {
+		return this.categoryCount;
+	}
+
+	/**
+	 * Returns the total amount of elements held by this document.
+	 *
+	 * @return The total number of elements
+	 */
+	public int getElementCount() {
+		return this.elementCount;
+	}
+
+	/**
+	 * Gets a category of the document.
+	 *
+	 * @param category The name of the category
+	 * @return The category, or null if it does not exist
+	 */
+	Section section(String category) {
+		return this.categories.get(category);
+	}
+
+	/**
+	 * Returns every category of the document, in file order.
+	 *
+	 * @return The categories of the document
+	 */
+	Collection<Section> sections() {
+		return this.categories.values();
+	}
+
+	/**
+	 * Returns the number of lines that the document was parsed from.
+	 *
+	 * @return The number of lines, including comments and blank lines
+	 */
+	int lines() {
+		return this.lines;
+	}
+
+	/**
+	 * Returns the INI file that this document was parsed from.
+	 *
+	 * @return The INI file of this document
+	 */
+	public File getINIFile() {
+		return this.iniFile;
+	}
+
+	/**
+	 * A single category of the document, with its elements in file order and
+	 * indexed by key.
+	 */
+	static class Section {
+		/**
+		 * The name of the category
+		 */
+		final String name;
+
+		/**
+		 * The elements of the category, in file order
+		 */
+		final ArrayList<INIElement> elements = new ArrayList<>();
+
+		/**
+		 * The elements of the category by key. If a key is repeated, the first
+		 * element with that key is kept.
+		 */
+		final HashMap<String, INIElement> keys = new HashMap<>();
+
+		/**
+		 * The elements of the category sorted by key, made the first time they
+		 * are searched by prefix
+		 */
+		private volatile TreeMap<String, INIElement> sorted;
+
+		Section(String name) {
+			this.name = name;
+		}
+
+		TreeMap<String, INIElement> sorted() {
+			TreeMap<String, INIElement> sorted = this.sorted;
+			if (sorted == null) {
+				sorted = new TreeMap<>(this.keys);
+				this.sorted = sorted;
+			}
+
+			return sorted;
+		}
+
+		void add(INIElement element) {
+			this.elements.add(element);
+			this.keys.putIfAbsent(element.getKey(), element);
+		}
+	}
+
+	/**
+	 * Collects categories and elements, in file order, into a new document.
+	 */
+	static class Builder {
+		private final File iniFile;
+		private final LinkedHashMap<String, Section> categories = new LinkedHashMap<>();
+
+		/**
+		 * Every different key, so that elements with the same key share a String
+		 */
+		private final HashMap<String, String> keys = new HashMap<>();
+		private Section current;
+		private int categoryCount;
+		private int elementCount;
+
+		/**
+		 * The number of lines that were read, including the ones not stored
+		 */
+		int lines;
+
+		Builder(File file) {
+			this.iniFile = file;
+		}
+
+		/**
+		 * Starts a new category. Elements under a repeated category are ignored.
+		 *
+		 * @param name The name of the category, without the braces
+		 */
+		void category(String name) {
+			this.categoryCount++;
+
+			if (this.categories.containsKey(name)) {
+				this.current = null;
+			} else {
+				this.current = new Section(name);
+				this.categories.put(name, this.current);
+			}
+		}
+
+		/**
+		 * Adds an element to the current category. Elements that come before
+		 * the first category are ignored.
+		 *
+		 * @param key	The key of the element
+		 * @param value	The value of the element
+		 */
+		void element(String key, Object value) {
+			if (this.current == null) return;
+
+			String shared = this.keys.putIfAbsent(key, key);
+			if (shared != null)
+				key = shared;
+
+			this.current.add(new INIElement(this.iniFile, this.current.name, key, value));
+			this.elementCount++;
+		}
+
+		INIDocument build() {
+			return new INIDocument(this.iniFile, this.categories, this.categoryCount, this.elementCount, this.lines);
+		}
+	}
+}
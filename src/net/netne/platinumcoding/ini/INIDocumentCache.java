@@ -0,0 +1,336 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is used for sharing parsed INI files between many readers.
+ * <br /><br />
+ * Documents are kept by the path of their file. When a document is asked for,
+ * the cache checks the file's modification time, size and file key, and parses
+ * the file again if any of them have changed. To keep lookups from touching the
+ * disk at all, the file is only checked again once the revalidation interval
+ * has passed since the last check.
+ * <br /><br />
+ * The cache holds at most a certain total weight of documents, where the weight
+ * of a document is either the size of its file in bytes or its number of
+ * elements. When the cache is full, the documents that were used least recently
+ * are removed first.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * // Up to 64 MB of INI files, checked for changes at most once a second
+ * INIDocumentCache cache = new INIDocumentCache(64 * 1024 * 1024, INIDocumentCache.Weigher.BYTES, 1000);
+ *
+ * // Short lived readers share the same parsed document
+ * INIReader reader = new INIReader(new java.io.File("Example.ini"), cache);
+ * reader.getElements("Window");
+ *
+ * System.out.println(cache.getHitCount() + " hits, " + cache.getMissCount() + " misses");
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * {@link #getShared()} returns a cache that is shared by the whole application.
+ * All of the methods of this class are safe to call from many threads. When two
+ * threads parse the same file at once, the document of the thread that read the
+ * file's attributes last is kept, so a slow parse of an older version of the file
+ * never replaces a newer one.
+ * <br /><br />
+ * The cached documents, and their elements, are shared by every reader of the
+ * cache. An {@link INIElementWriter} that is given one of their elements, such as
+ * one used with an {@link INIWriteBehind} or an {@link INIInterpolator}, changes
+ * the value for every reader at once, before the file itself is written. Elements
+ * that are to be changed should come from {@link INIDocument#load(File)} instead.
+ *
+ * @author Dealer Next Door
+ */
+public class INIDocumentCache {
+	/**
+	 * The ways of weighing a document
+	 */
+	public enum Weigher {
+		/**
+		 * The size of the document's file, in bytes
+		 */
+		BYTES,
+
+		/**
+		 * The number of elements in the document
+		 */
+		ELEMENTS
+	}
+
+	/**
+	 * The cache shared by the whole application, created when first used
+	 */
+	private static volatile INIDocumentCache shared;
+
+	/**
+	 * The cached documents, from least to most recently used
+	 */
+	private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * The highest total weight of the cached documents
+	 */
+	private final long maxWeight;
+
+	/**
+	 * How documents are weighed
+	 */
+	private final Weigher weigher;
+
+	/**
+	 * How long a document is used before its file is checked for changes again,
+	 * in nanoseconds
+	 */
+	private final long revalidateNanos;
+
+	/**
+	 * The total weight of the cached documents
+	 */
+	private long weight;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param maxWeight		The highest total weight of the cached documents
+	 * @param weigher		How documents are weighed
+	 * @param revalidate	How long a document is used before its file is checked
+	 * for changes again, in milliseconds. 0 checks the file every time.
+	 */
+	public INIDocumentCache(long maxWeight, Weigher weigher, long revalidate) {
+		if (maxWeight <= 0)
+			throw new IllegalArgumentException("maxWeight must be positive: " + maxWeight);
+		if (revalidate < 0)
+			throw new IllegalArgumentException("revalidate must not be negative: " + revalidate);
+
+		this.maxWeight = maxWeight;
+		this.weigher = Objects.requireNonNull(weigher, "weigher");
+		this.revalidateNanos = revalidate * 1_000_000L;
+	}
+
+	/**
+	 * Returns the cache shared by the whole application. It holds up to 64 MB of
+	 * INI files, and checks them for changes at most once a second.
+	 *
+	 * @return The shared cache
+	 */
+	public static INIDocumentCache getShared() {
+		INIDocumentCache cache = shared;
+		if (cache == null) {
+			synchronized (INIDocumentCache.class) {
+				if (shared == null)
+					shared = new INIDocumentCache(64L * 1024 * 1024, Weigher.BYTES, 1000);
+				cache = shared;
+			}
+		}
+
+		return cache;
+	}
+
+	/**
+	 * Gets the parsed document of an INI file, parsing the file if it is not in
+	 * the cache or has changed.
+	 *
+	 * @param file The INI file
+	 * @return The parsed INI file
+	 * @throws IOException If the file could not be read
+	 */
+	public INIDocument get(File file) throws IOException {
+		return this.get(file, INIInstrumentation.LookupEvent.NONE);
+	}
+
+	/**
+	 * Gets the parsed document of an INI file for a lookup, and tells the
+	 * lookup's event if the file had to be parsed for it.
+	 *
+	 * @param file	The INI file
+	 * @param event	The event of the lookup
+	 * @return The parsed INI file
+	 * @throws IOException If the file could not be read
+	 */
+	INIDocument get(File file, INIInstrumentation.LookupEvent event) throws IOException {
+		Path path = file.toPath().toAbsolutePath().normalize();
+		long now = System.nanoTime();
+		Entry entry;
+
+		synchronized (this) {
+			entry = this.entries.get(path);
+		}
+
+		// Steady state, the file was checked recently enough
+		if (entry != null && now - entry.checked < this.revalidateNanos) {
+			this.hits.incrementAndGet();
+			return entry.document;
+		}
+
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		if (entry != null && entry.matches(attributes)) {
+			entry.checked = now;
+			this.hits.incrementAndGet();
+			return entry.document;
+		}
+
+		this.misses.incrementAndGet();
+		long read = System.nanoTime();
+
+		INIDocument document = INIDocument.load(file);
+		event.parsed(attributes.size(), document.lines());
+		Entry loaded = new Entry(document, attributes, read, this.weigh(document, attributes));
+
+		synchronized (this) {
+			Entry old = this.entries.get(path);
+
+			// Another thread read the file after this one did
+			if (old != null && old.read - read > 0)
+				return document;
+
+			this.entries.put(path, loaded);
+			if (old != null)
+				this.weight -= old.weight;
+			this.weight += loaded.weight;
+
+			this.evict();
+		}
+
+		return document;
+	}
+
+	/**
+	 * Removes the least recently used documents until the cache is not over its
+	 * highest weight. The most recently used document is always kept.
+	 */
+	private void evict() {
+		Iterator<Entry> iterator = this.entries.values().iterator();
+
+		while (this.weight > this.maxWeight && this.entries.size() > 1 && iterator.hasNext()) {
+			this.weight -= iterator.next().weight;
+			iterator.remove();
+			this.evictions.incrementAndGet();
+		}
+	}
+
+	private long weigh(INIDocument document, BasicFileAttributes attributes) {
+		return (this.weigher == Weigher.BYTES ? attributes.size() : document.getElementCount());
+	}
+
+	/**
+	 * Removes the document of an INI file from the cache, so the next time it is
+	 * asked for the file is parsed again.
+	 *
+	 * @param file The INI file
+	 */
+	public synchronized void invalidate(File file) {
+		Entry old = this.entries.remove(file.toPath().toAbsolutePath().normalize());
+		if (old != null)
+			this.weight -= old.weight;
+	}
+
+	/**
+	 * Removes every document from the cache.
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+		this.weight = 0;
+	}
+
+	/**
+	 * Returns the number of documents in the cache.
+	 *
+	 * @return The number of cached documents
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Returns the total weight of the documents in the cache.
+	 *
+	 * @return The total weight of the cached documents
+	 */
+	public synchronized long getWeight() {
+		return this.weight;
+	}
+
+	/**
+	 * Returns the number of times a document was found in the cache and was
+	 * still up to date.
+	 *
+	 * @return The number of cache hits
+	 */
+	public long getHitCount() {
+		return this.hits.get();
+	}
+
+	/**
+	 * Returns the number of times a file had to be parsed, because it was not in
+	 * the cache or had changed.
+	 *
+	 * @return The number of cache misses
+	 */
+	public long getMissCount() {
+		return this.misses.get();
+	}
+
+	/**
+	 * Returns the number of documents that were removed to keep the cache under
+	 * its highest weight.
+	 *
+	 * @return The number of evictions
+	 */
+	public long getEvictionCount() {
+		return this.evictions.get();
+	}
+
+	/**
+	 * A cached document, with the attributes of its file when it was parsed.
+	 */
+	private static class Entry {
+		final INIDocument document;
+		final long lastModified;
+		final long size;
+		final Object fileKey;
+		final long weight;
+
+		/**
+		 * When the attributes of the file were read, from {@link System#nanoTime()}
+		 */
+		final long read;
+
+		/**
+		 * When the file was last checked for changes, from {@link System#nanoTime()}
+		 */
+		volatile long checked;
+
+		Entry(INIDocument document, BasicFileAttributes attributes, long checked, long weight) {
+			this.document = document;
+			this.lastModified = attributes.lastModifiedTime().toMillis();
+			this.size = attributes.size();
+			this.fileKey = attributes.fileKey();
+			this.read = checked;
+			this.checked = checked;
+			this.weight = weight;
+		}
+
+		boolean matches(BasicFileAttributes attributes) {
+			return this.lastModified == attributes.lastModifiedTime().toMillis()
+					&& this.size == attributes.size()
+					&& Objects.equals(this.fileKey, attributes.fileKey());
+		}
+	}
+}
@@ -0,0 +1,472 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is used for making many changes to an INI file while only
+ * rewriting the file once.
+ * <br /><br />
+ * Every call to {@link INIFileWriter#addCategory(String)},
+ * {@link INIFileWriter#addElement(String, String, Object)} and
+ * {@link INIFileWriter#addComment(String, Object)} reads the whole file and writes
+ * it back out. An edit session, started with {@link INIFileWriter#begin()}, only
+ * remembers the changes until {@link #commit()} is called. Then all of them are
+ * written in a single pass over the file, and the file is replaced in one step.
+ * <br /><br />
+ * The following text is content of the file "Example.ini", which is used in
+ * all of the examples:
+ * <br /><br />
+ * <pre>
+ * {@code
+ * ; Window properties
+ * [Window]
+ * Width=640
+ * Height=480
+ *
+ * ; Render properties
+ * [Properties]
+ * vSync=true
+ * DoubleBuffer=true
+ * }
+ * </pre>
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * INIFileWriter writer = new INIFileWriter(new java.io.File("Example.ini"));
+ * INIEditSession session = writer.begin();
+ *
+ * session.addCategory("Color");
+ * session.addElement("Color", "Text", "Black");
+ * session.addElement("Window", "Fullscreen", false);
+ * session.setValue("Window", "Width", 1280);
+ * session.addComment("Color", "Colors of the window");
+ *
+ * // Nothing has been written until now
+ * session.commit();
+ *
+ * // ...
+ * }
+ * </pre>
+ * And the content of the Example.ini file is now:
+ * <br /><br />
+ * <pre>
+ * {@code
+ * ; Window properties
+ * [Window]
+ * Width=1280
+ * Height=480
+ * Fullscreen=false
+ *
+ * ; Render properties
+ * [Properties]
+ * vSync=true
+ * DoubleBuffer=true
+ *
+ * # Colors of the window
+ * [Color]
+ * Text=Black
+ * }
+ * </pre>
+ *
+ * The changes follow the same rules as the INIFileWriter: categories and
+ * elements that already exist are not added again, and new elements are placed
+ * after the last element of their category. Unlike the INIFileWriter, blank
+ * lines and comments are kept as they are. Elements and whole categories can also
+ * be removed, with {@link #removeElement(String, String)} and
+ * {@link #removeCategory(String)}.
+ *
+ * @author Dealer Next Door
+ */
+public class INIEditSession {
+	/**
+	 * The file that the changes will be written to.
+	 */
+	private final File iniFile;
+
+	/**
+	 * The changes for each category, in the order the categories were first changed
+	 */
+	private final LinkedHashMap<String, Edits> edits = new LinkedHashMap<>();
+
+	/**
+	 * Creates an edit session for the specified file. Sessions are created with
+	 * {@link INIFileWriter#begin()}.
+	 *
+	 * @param file The file that the changes will be written to
+	 */
+	INIEditSession(File file) {
+		this.iniFile = file;
+	}
+
+	/**
+	 * Adds a category to the end of the file when the session is committed, if
+	 * the file does not already contain it.
+	 *
+	 * @param category The category to be added to the file
+	 * @return This session
+	 */
+	public INIEditSession addCategory(String category) {
+		this.edits(category).create = true;
+		return this;
+	}
+
+	/**
+	 * Adds an element to the desired category when the session is committed.
+	 * If the element already exists, it is not overwritten.
+	 *
+	 * @param category	The desired category to add the element to
+	 * @param key		The key that will represent the element
+	 * @param value		The value of the element
+	 * @return This session
+	 */
+	public INIEditSession addElement(String category, String key, Object value) {
+		this.edits(category).additions.putIfAbsent(key, value);
+		return this;
+	}
+
+	/**
+	 * Adds an element to its category when the session is committed. If the
+	 * element already exists, it is not overwritten.
+	 * <i>Note: The element's INI file will be overwritten to the session's
+	 * INI file</i>
+	 *
+	 * @param element An element containing a category, key, and a value.
+	 * @return This session
+	 */
+	public INIEditSession addElement(INIElement element) {
+		element.setINIFile(this.iniFile);
+		return this.addElement(element.getCategory(), element.getKey(), element.getValue());
+	}
+
+	/**
+	 * Adds a comment to the line directly above the specified category when the
+	 * session is committed.
+	 *
+	 * @param category	The category to add the comment above
+	 * @param comment	The comment to be added above the category
+	 * @return This session
+	 */
+	public INIEditSession addComment(String category, Object comment) {
+		this.edits(category).comments.add(comment.toString());
+		return this;
+	}
+
+	/**
+	 * Changes the value of an element that is already in the file when the
+	 * session is committed. Only the first occurrence of the category is
+	 * changed, and nothing is done if the element does not exist.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @param value		The new value of the element
+	 * @return This session
+	 */
+	public INIEditSession setValue(String category, String key, Object value) {
+		this.edits(category).changes.put(key, value);
+		return this;
+	}
+
+	/**
+	 * Removes an element from its category when the session is committed. Every
+	 * line with the key in the first occurrence of the category is removed, and
+	 * nothing is done if the element does not exist.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @return This session
+	 */
+	public INIEditSession removeElement(String category, String key) {
+		Edits edits = this.edits(category);
+		edits.removals.add(key);
+		edits.additions.remove(key);
+		edits.changes.remove(key);
+		return this;
+	}
+
+	/**
+	 * Removes every occurrence of a category, with its elements and the comments
+	 * directly above it, when the session is committed. Changes made to the
+	 * category earlier in the session are thrown away. If the category is added
+	 * again afterwards, it is added to the end of the file with only the new
+	 * elements.
+	 *
+	 * @param category The category to be removed
+	 * @return This session
+	 */
+	public INIEditSession removeCategory(String category) {
+		Edits edits = this.edits(category);
+		edits.remove = true;
+		edits.create = false;
+		edits.additions.clear();
+		edits.changes.clear();
+		edits.comments.clear();
+		edits.removals.clear();
+		return this;
+	}
+
+	/**
+	 * Checks if the session will change the value of an element.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @return True if {@link #setValue(String, String, Object)} was called for it
+	 */
+	boolean hasChange(String category, String key) {
+		Edits edits = this.edits.get(category);
+		return edits != null && edits.changes.containsKey(key);
+	}
+
+	/**
+	 * Checks if the session has any changes that have not been committed.
+	 *
+	 * @return True if there are no changes to commit
+	 */
+	public boolean isEmpty() {
+		return this.edits.isEmpty();
+	}
+
+	/**
+	 * Throws away every change that has not been committed.
+	 */
+	public void clear() {
+		this.edits.clear();
+	}
+
+	/**
+	 * Writes every change to the file in a single pass, then replaces the file.
+	 * The session is empty afterwards, and can be used for more changes.
+	 *
+	 * @throws IOException If the file could not be read or replaced
+	 */
+	public void commit() throws IOException {
+		if (this.edits.isEmpty()) return;
+
+		ReentrantLock lock = INIFiles.lock(this.iniFile);
+		lock.lock();
+		try {
+			File temp = INIFiles.createTempFile(this.iniFile);
+
+			try {
+				try (BufferedReader in = this.iniFile.exists()
+							? new BufferedReader(new FileReader(this.iniFile))
+							: new BufferedReader(new StringReader(""));
+						BufferedWriter out = new BufferedWriter(new FileWriter(temp))) {
+					this.apply(in, out);
+				}
+
+				INIFiles.replace(temp, this.iniFile);
+			} finally {
+				temp.delete();
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		this.edits.clear();
+	}
+
+	/**
+	 * Copies every line from a reader to a writer, applying the changes of this
+	 * session along the way.
+	 *
+	 * @param in	The current content of the file
+	 * @param out	Receives the new content of the file
+	 * @throws IOException If the content could not be read or written
+	 */
+	void apply(BufferedReader in, BufferedWriter out) throws IOException {
+		HashSet<String> seen = new HashSet<>();
+		HashSet<String> keys = new HashSet<>();
+		ArrayList<String> trivia = new ArrayList<>();
+		Edits current = null;
+		boolean removing = false;
+		boolean written = false;
+		String string;
+
+		while ((string = in.readLine()) != null) {
+			written = true;
+
+			if (!string.equals("") && string.charAt(0) == '[') {
+				String thisCategory = string.length() > 1 ? string.substring(1, string.length() - 1) : "";
+				Edits edits = this.edits.get(thisCategory);
+
+				// The comments directly above a removed category go with it
+				if (edits != null && edits.remove)
+					dropComments(trivia);
+
+				// Leaving the category, so its new elements go before the lines
+				// that lead up to this header
+				this.finish(current, keys, trivia, out);
+				current = null;
+				removing = (edits != null && edits.remove);
+
+				if (removing) {
+					seen.add(thisCategory);
+					continue;
+				}
+
+				if (seen.add(thisCategory)) {
+					current = edits;
+					if (current != null)
+						writeComments(current, out);
+				}
+			} else {
+				if (string.equals("") || string.charAt(0) == ';' || string.charAt(0) == '#') {
+					trivia.add(string);
+					continue;
+				}
+
+				// The lines inside a removed category go with it
+				if (removing) {
+					trivia.clear();
+					continue;
+				}
+
+				int pos = (current != null ? string.indexOf('=') : -1);
+				if (pos != -1) {
+					String key = string.substring(0, pos);
+					if (current.removals.contains(key))
+						continue;
+
+					Object value = current.changes.get(key);
+
+					if (value != null && keys.add(key))
+						string = key + '=' + value;
+					else
+						keys.add(key);
+				}
+
+				writeLines(trivia, out);
+			}
+
+			out.write(string);
+			out.newLine();
+		}
+
+		this.finish(current, keys, trivia, out);
+
+		for (Map.Entry<String, Edits> entry : this.edits.entrySet()) {
+			String category = entry.getKey();
+			Edits edits = entry.getValue();
+
+			if (seen.contains(category) && !edits.remove)
+				continue;
+
+			if (!edits.create) {
+				if (!edits.additions.isEmpty())
+					System.out.println("WARNING: Category " + category + " is not in the INI file");
+				continue;
+			}
+
+			if (written)
+				out.newLine();
+			written = true;
+
+			writeComments(edits, out);
+			out.write('[' + category + ']');
+			out.newLine();
+			this.finish(edits, keys, trivia, out);
+		}
+	}
+
+	/**
+	 * Writes the new elements of a category that is being left, followed by the
+	 * blank lines and comments that were held back.
+	 */
+	private void finish(Edits edits, HashSet<String> keys, ArrayList<String> trivia, BufferedWriter out)
+			throws IOException {
+		if (edits != null) {
+			for (Map.Entry<String, Object> addition : edits.additions.entrySet()) {
+				String key = addition.getKey();
+				if (!keys.add(key))
+					continue;
+
+				Object value = edits.changes.getOrDefault(key, addition.getValue());
+				out.write(key + '=' + value);
+				out.newLine();
+			}
+		}
+
+		writeLines(trivia, out);
+		keys.clear();
+	}
+
+	private static void writeComments(Edits edits, BufferedWriter out) throws IOException {
+		for (String comment : edits.comments) {
+			out.write("# " + comment);
+			out.newLine();
+		}
+	}
+
+	/**
+	 * Removes the comments at the end of the held back lines, up to the last
+	 * blank line.
+	 */
+	private static void dropComments(ArrayList<String> lines) {
+		while (!lines.isEmpty() && !lines.get(lines.size() - 1).equals(""))
+			lines.remove(lines.size() - 1);
+	}
+
+	private static void writeLines(ArrayList<String> lines, BufferedWriter out) throws IOException {
+		for (String line : lines) {
+			out.write(line);
+			out.newLine();
+		}
+
+		lines.clear();
+	}
+
+	private Edits edits(String category) {
+		return this.edits.computeIfAbsent(category, c -> new Edits());
+	}
+
+	/**
+	 * Returns the INI file that the changes will be written to.
+	 *
+	 * @return The INI file of this session
+	 */
+	public File getINIFile() {
+		return this.iniFile;
+	}
+
+	/**
+	 * The changes waiting to be made to a single category.
+	 */
+	private static class Edits {
+		/**
+		 * If the category should be created when it is not in the file
+		 */
+		boolean create;
+
+		/**
+		 * If every occurrence of the category should be removed
+		 */
+		boolean remove;
+
+		/**
+		 * The elements to be added, in the order they were added
+		 */
+		final LinkedHashMap<String, Object> additions = new LinkedHashMap<>();
+
+		/**
+		 * The new values of elements that are already in the file
+		 */
+		final HashMap<String, Object> changes = new HashMap<>();
+
+		/**
+		 * The comments to be added above the category
+		 */
+		final ArrayList<String> comments = new ArrayList<>();
+
+		/**
+		 * The keys of the elements to be removed
+		 */
+		final HashSet<String> removals = new HashSet<>();
+	}
+}
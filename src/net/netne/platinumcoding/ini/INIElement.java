@@ -1,6 +1,7 @@
 package net.netne.platinumcoding.ini;
 
 import java.io.*;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * This class is used to represent an element within an INI file.
@@ -28,6 +29,19 @@ public class INIElement {
 	 */
 	String category, key;
 	
+	/**
+	 * The parsed forms of the value that have been worked out so far, or null.
+	 * They are only used while they belong to the current value.
+	 */
+	private volatile Parsed parsed;
+	
+	private static final AtomicReferenceFieldUpdater<INIElement, Parsed> PARSED =
+			AtomicReferenceFieldUpdater.newUpdater(INIElement.class, Parsed.class, "parsed");
+	
+	private static final int LONG_PARSED = 1, LONG_VALID = 2;
+	private static final int DOUBLE_PARSED = 4, DOUBLE_VALID = 8;
+	private static final int BOOLEAN_PARSED = 16, BOOLEAN_VALID = 32, BOOLEAN_TRUE = 64;
+	
 	/**
 	 * Initializing the element of an INI file
 	 * 
@@ -85,6 +99,34 @@ public class INIElement {
 	 */
 	public void setValue(Object obj) {
 		this.value = obj;
+		this.parsed = null;
+	}
+	
+	/**
+	 * Sets the value to the text of a whole number, without having to parse
+	 * the text again when it is read as a number.
+	 */
+	void setValue(String text, long number) {
+		this.value = text;
+		this.parsed = new Parsed(text, LONG_PARSED | LONG_VALID | DOUBLE_PARSED | DOUBLE_VALID, number, number);
+	}
+	
+	/**
+	 * Sets the value to the text of a decimal number, without having to parse
+	 * the text again when it is read as a number.
+	 */
+	void setValue(String text, double number) {
+		this.value = text;
+		this.parsed = new Parsed(text, DOUBLE_PARSED | DOUBLE_VALID, 0, number);
+	}
+	
+	/**
+	 * Sets the value to the text of a boolean, without having to parse the
+	 * text again when it is read as a boolean.
+	 */
+	void setValue(String text, boolean bool) {
+		this.value = text;
+		this.parsed = new Parsed(text, BOOLEAN_PARSED | BOOLEAN_VALID | (bool ? BOOLEAN_TRUE : 0), 0, 0);
 	}
 	
 	/**
@@ -118,4 +160,207 @@ public class INIElement {
 	public Object getValue() {
 		return this.value;
 	}
+	
+	/**
+	 * Gets the value of the element as a String.
+	 * 
+	 * @param def The value to return if the element has no value
+	 * @return The value of the element, or the default value
+	 */
+	public String getString(String def) {
+		return (this.value != null ? this.value.toString() : def);
+	}
+	
+	/**
+	 * Gets the value of the element as an int. The value is only parsed the
+	 * first time it is read.
+	 * 
+	 * @param def The value to return if the element is not a whole number that
+	 * fits in an int
+	 * @return The value of the element, or the default value
+	 */
+	public int getInt(int def) {
+		Parsed parsed = this.parseLong();
+		if ((parsed.flags & LONG_VALID) == 0)
+			return def;
+		
+		long number = parsed.parsedLong;
+		return (number == (int) number ? (int) number : def);
+	}
+	
+	/**
+	 * Gets the value of the element as a long. The value is only parsed the
+	 * first time it is read.
+	 * 
+	 * @param def The value to return if the element is not a whole number
+	 * @return The value of the element, or the default value
+	 */
+	public long getLong(long def) {
+		Parsed parsed = this.parseLong();
+		return ((parsed.flags & LONG_VALID) != 0 ? parsed.parsedLong : def);
+	}
+	
+	/**
+	 * Gets the value of the element as a double. The value is only parsed the
+	 * first time it is read.
+	 * 
+	 * @param def The value to return if the element is not a number
+	 * @return The value of the element, or the default value
+	 */
+	public double getDouble(double def) {
+		Object obj = this.value;
+		Parsed parsed = this.parsed(obj);
+		
+		if ((parsed.flags & DOUBLE_PARSED) == 0) {
+			int flags = DOUBLE_PARSED;
+			double number = 0;
+			
+			try {
+				if (obj instanceof Number) {
+					number = ((Number) obj).doubleValue();
+					flags |= DOUBLE_VALID;
+				} else if (obj != null) {
+					number = Double.parseDouble(obj.toString().trim());
+					flags |= DOUBLE_VALID;
+				}
+			} catch (NumberFormatException ex) {
+				// Not a number
+			}
+			
+			parsed = this.publish(new Parsed(obj, parsed.flags | flags, parsed.parsedLong, number));
+		}
+		
+		return ((parsed.flags & DOUBLE_VALID) != 0 ? parsed.parsedDouble : def);
+	}
+	
+	/**
+	 * Gets the value of the element as a boolean. Only "true" and "false" are
+	 * accepted, in any case. The value is only parsed the first time it is read.
+	 * 
+	 * @param def The value to return if the element is not a boolean
+	 * @return The value of the element, or the default value
+	 */
+	public boolean getBoolean(boolean def) {
+		Object obj = this.value;
+		Parsed parsed = this.parsed(obj);
+		
+		if ((parsed.flags & BOOLEAN_PARSED) == 0) {
+			int flags = BOOLEAN_PARSED;
+			String text = (obj != null ? obj.toString().trim() : "");
+			
+			if (text.equalsIgnoreCase("true"))
+				flags |= BOOLEAN_VALID | BOOLEAN_TRUE;
+			else if (text.equalsIgnoreCase("false"))
+				flags |= BOOLEAN_VALID;
+			
+			parsed = this.publish(new Parsed(obj, parsed.flags | flags, parsed.parsedLong, parsed.parsedDouble));
+		}
+		
+		return ((parsed.flags & BOOLEAN_VALID) != 0 ? (parsed.flags & BOOLEAN_TRUE) != 0 : def);
+	}
+	
+	/**
+	 * Parses the value as a whole number, if it has not been parsed yet.
+	 * 
+	 * @return The parsed forms of the value, with the whole number worked out
+	 */
+	private Parsed parseLong() {
+		Object obj = this.value;
+		Parsed parsed = this.parsed(obj);
+		
+		if ((parsed.flags & LONG_PARSED) == 0) {
+			int flags = LONG_PARSED;
+			long number = 0;
+			
+			try {
+				if (obj instanceof Integer || obj instanceof Long || obj instanceof Short || obj instanceof Byte) {
+					number = ((Number) obj).longValue();
+					flags |= LONG_VALID;
+				} else if (obj != null) {
+					number = Long.parseLong(obj.toString().trim());
+					flags |= LONG_VALID;
+				}
+			} catch (NumberFormatException ex) {
+				// Not a whole number
+			}
+			
+			parsed = this.publish(new Parsed(obj, parsed.flags | flags, number, parsed.parsedDouble));
+		}
+		
+		return parsed;
+	}
+	
+	/**
+	 * Gets the parsed forms that have been worked out for a value.
+	 * 
+	 * @param obj The value that was read from the element
+	 * @return The parsed forms of the value, which may have none worked out
+	 */
+	private Parsed parsed(Object obj) {
+		Parsed parsed = this.parsed;
+		return (parsed != null && parsed.value == obj ? parsed : new Parsed(obj, 0, 0, 0));
+	}
+	
+	/**
+	 * Keeps newly parsed forms of the value, together with the forms that other
+	 * threads have worked out for the same value in the meantime. Nothing is
+	 * kept if the value has been changed since it was read.
+	 * 
+	 * @param parsed The new parsed forms
+	 * @return The parsed forms that were kept, or the new ones if the value has
+	 * been changed
+	 */
+	private Parsed publish(Parsed parsed) {
+		for (;;) {
+			Parsed current = this.parsed;
+			if (this.value != parsed.value)
+				return parsed;
+			
+			Parsed merged = (current != null && current.value == parsed.value ? current.merge(parsed) : parsed);
+			if (PARSED.compareAndSet(this, current, merged))
+				return merged;
+		}
+	}
+	
+	/**
+	 * A value with the parsed forms that have been worked out for it. Never
+	 * changed, so that a value and its parsed forms are always seen together.
+	 */
+	private static final class Parsed {
+		final Object value;
+		
+		/**
+		 * Which of the value's parsed forms have been worked out, and which of
+		 * them are valid
+		 */
+		final int flags;
+		
+		/**
+		 * The value parsed as a whole number and as a decimal number, which are
+		 * only valid if the matching flags are set
+		 */
+		final long parsedLong;
+		final double parsedDouble;
+		
+		Parsed(Object value, int flags, long parsedLong, double parsedDouble) {
+			this.value = value;
+			this.flags = flags;
+			this.parsedLong = parsedLong;
+			this.parsedDouble = parsedDouble;
+		}
+		
+		/**
+		 * Combines the parsed forms of the same value that were worked out by
+		 * different threads.
+		 */
+		Parsed merge(Parsed other) {
+			int flags = this.flags | other.flags;
+			if (flags == this.flags)
+				return this;
+			
+			return new Parsed(this.value, flags,
+					((this.flags & LONG_PARSED) != 0 ? this.parsedLong : other.parsedLong),
+					((this.flags & DOUBLE_PARSED) != 0 ? this.parsedDouble : other.parsedDouble));
+		}
+	}
 }
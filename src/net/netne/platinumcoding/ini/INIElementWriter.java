@@ -1,6 +1,18 @@
 package net.netne.platinumcoding.ini;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class is used for changing the value of an {@link INIElement} and saving
@@ -78,6 +90,29 @@ import java.io.*;
  * }
  * </pre>
  * 
+ * The writer remembers where the value of every element is in the file, so
+ * finding an element does not read the file. If the new value is as long as the
+ * old one, it is written over the old one with a single write, and the file's
+ * modification time is moved forward, so that readers that check the size and
+ * modification time of the file notice the change. Otherwise the file is copied
+ * into a temp file next to it by the operating system, with the new value in
+ * place of the old one, and the temp file replaces the file in a single step, so
+ * readers always see either the old or the new file. Blank lines and comments are
+ * left as they are.
+ * <br /><br />
+ * Writers are safe to use from many threads. Changes to the same file are made
+ * one at a time, while changes to different files are made at the same time.
+ * <br /><br />
+ * If a value is changed many times a second, create the writer with an
+ * {@link INIWriteBehind}. The element is then changed in memory right away, and
+ * the changes are written to the file together, later. If it is created with an
+ * {@link INIJournal}, every change is appended to the journal instead, and the
+ * file is only rewritten when the journal is compacted.
+ * <br /><br />
+ * If other values refer to the element through an {@link INIInterpolator}, give
+ * the writer the interpolator with {@link #setInterpolator(INIInterpolator)}, so
+ * that the values that depend on the element are worked out again.
+ * 
  * @author Dealer Next Door
  */
 public class INIElementWriter {
@@ -86,6 +121,29 @@ public class INIElementWriter {
 	 */
 	private INIElement element;
 	
+	/**
+	 * The positions of the elements in the INI file, as of the last time the
+	 * file was scanned or written to.
+	 */
+	private LineIndex index;
+	
+	/**
+	 * Remembers the changes to be written later, if the writer does not write
+	 * them right away.
+	 */
+	private INIWriteBehind writeBehind;
+	
+	/**
+	 * The journal that changes are appended to instead of the file, if there
+	 * is one.
+	 */
+	private INIJournal journal;
+	
+	/**
+	 * Told about every new value of the element, if there is one.
+	 */
+	private INIInterpolator interpolator;
+	
 	/**
 	 * Creates an INIElementWriter to write to the specified element.
 	 * 
@@ -95,61 +153,258 @@ public class INIElementWriter {
 		this.element = e;
 	}
 	
+	/**
+	 * Creates an INIElementWriter that changes the specified element in memory
+	 * right away, and leaves writing it to the file to a write-behind. Once the
+	 * write-behind is closed, the element is no longer changed.
+	 * 
+	 * @param e				The element to be written to.
+	 * @param writeBehind	Writes the changes to the file later
+	 */
+	public INIElementWriter(INIElement e, INIWriteBehind writeBehind) {
+		this.element = e;
+		this.writeBehind = writeBehind;
+	}
+	
+	/**
+	 * Creates an INIElementWriter that appends every change of the specified
+	 * element to a journal, instead of writing it to the file.
+	 * 
+	 * @param e			The element to be written to.
+	 * @param journal	The journal of the element's INI file
+	 */
+	public INIElementWriter(INIElement e, INIJournal journal) {
+		this.element = e;
+		this.journal = journal;
+	}
+	
 	/**
 	 * Sets the value of this specific INIElement and writes the value to the file
 	 * 
 	 * @param obj The desired value of this element
 	 */
 	public void setValue(Object obj) {
-		if (this.element == null || this.element.getINIFile() == null) return;
-		
-		// Used to detect if it should write to the file or not
-		boolean hasFoundCategory = false;
-		File iniFile = element.getINIFile();
-		
-		try(BufferedReader in = new BufferedReader(new FileReader(iniFile))) {
-			// Temp file for writing the changes to
-			File tempFile = new File("temp.ini");
-			BufferedWriter out = new BufferedWriter(new FileWriter(tempFile));
-			String string;
-			while ((string = in.readLine()) != null) {
-				String newline = string;
-				
-				if (string.equals("") || string.charAt(0) == ';' || string.charAt(0) == '#')
-					continue;
-				
-				// Checking if it has found the category that this element is in
-				if (!hasFoundCategory) {
-					if (string.charAt(0) == '[') {
-						// Getting the category name without the braces
-						String fileCategory = string.substring(1, string.length() - 1);
-						if (fileCategory.equals(element.getCategory())) {
-							hasFoundCategory = true;
-							// Found the category, can now write to the file
-						}
-					}
-				} else {
-					// The element is confirmed to be under this category, checking to override
-					// the current value
-					if (string.startsWith(element.getKey())) {
-						newline = element.getKey() + "=" + obj.toString();
-						element.setValue(obj);
-					}
-				}
-				
-				// Writes the new line, making it easier to modify
-				out.write(newline);
-				out.newLine();
+		if (this.write(obj.toString())) {
+			this.element.setValue(obj);
+			this.changed();
+		}
+	}
+	
+	/**
+	 * Sets the value of this specific INIElement to a whole number and writes
+	 * the value to the file, without boxing it.
+	 * 
+	 * @param value The desired value of this element
+	 */
+	public void setValue(int value) {
+		this.setValue((long) value);
+	}
+	
+	/**
+	 * Sets the value of this specific INIElement to a whole number and writes
+	 * the value to the file, without boxing it.
+	 * 
+	 * @param value The desired value of this element
+	 */
+	public void setValue(long value) {
+		String text = Long.toString(value);
+		if (this.write(text)) {
+			this.element.setValue(text, value);
+			this.changed();
+		}
+	}
+	
+	/**
+	 * Sets the value of this specific INIElement to a decimal number and writes
+	 * the value to the file, without boxing it.
+	 * 
+	 * @param value The desired value of this element
+	 */
+	public void setValue(double value) {
+		String text = Double.toString(value);
+		if (this.write(text)) {
+			this.element.setValue(text, value);
+			this.changed();
+		}
+	}
+	
+	/**
+	 * Sets the value of this specific INIElement to a boolean and writes the
+	 * value to the file, without boxing it.
+	 * 
+	 * @param value The desired value of this element
+	 */
+	public void setValue(boolean value) {
+		String text = Boolean.toString(value);
+		if (this.write(text)) {
+			this.element.setValue(text, value);
+			this.changed();
+		}
+	}
+	
+	/**
+	 * Tells the interpolator, if there is one, that the element has a new value.
+	 */
+	private void changed() {
+		if (this.interpolator != null)
+			this.interpolator.changed(this.element);
+	}
+	
+	/**
+	 * Writes the new value of the element to the file.
+	 * 
+	 * @param text The new value of the element
+	 * @return True if the value was written
+	 */
+	private boolean write(String text) {
+		if (this.element == null || this.element.getINIFile() == null) return false;
+		
+		if (this.writeBehind != null) {
+			try {
+				this.writeBehind.changed(this.element, text);
+				return true;
+			} catch (IllegalStateException e) {
+				// The write-behind was closed, so the value is not changed
+				return false;
 			}
+		}
+		
+		if (this.journal != null) {
+			try {
+				this.journal.setValue(this.element.getCategory(), this.element.getKey(), text);
+				return true;
+			} catch (IOException e) {
+				INIInstrumentation.error(this.element.getINIFile(), e);
+				e.printStackTrace();
+				return false;
+			}
+		}
+		
+		File iniFile = this.element.getINIFile();
+		byte[] bytes = text.getBytes(Charset.defaultCharset());
+		
+		INIInstrumentation.WriteEvent event = INIInstrumentation.write(iniFile, "setValue");
+		ReentrantLock lock = INIFiles.lock(iniFile);
+		lock.lock();
+		try {
+			LineIndex index = this.index(iniFile);
+			LineIndex.Entry entry = index.get(this.element.getCategory(), this.element.getKey());
+			
+			// The element is not in the file, so there is nothing to change
+			if (entry == null)
+				return false;
 			
-			in.close();
-			out.close();
+			if (bytes.length != entry.length || !overwrite(iniFile, entry.start, bytes, index.lastModified))
+				rewrite(iniFile, entry.start, entry.length, bytes);
 			
-			element.getINIFile().delete();
-			tempFile.renameTo(element.getINIFile());
-		} catch(IOException e) {
+			index.update(entry, bytes.length);
+			index.stamp(iniFile);
+			event.finish();
+			return true;
+		} catch (IOException e) {
+			this.index = null;
+			INIInstrumentation.error(iniFile, e);
 			e.printStackTrace();
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Writes a value over an old value of the same length. Readers see either
+	 * the old or the new value, since it is written with a single write.
+	 * <br /><br />
+	 * The size and file key of the file stay the same, so its modification time
+	 * is moved past the one it had before, even if the clock has not moved on
+	 * since then. If the file system keeps modification times too coarsely for
+	 * that to show, false is returned, and the file has to be replaced instead.
+	 * 
+	 * @param iniFile		The file to write the value in
+	 * @param start			The position of the old value
+	 * @param bytes			The new value
+	 * @param lastModified	The modification time of the file before the write
+	 * @return True if the change can be noticed from the modification time
+	 */
+	private static boolean overwrite(File iniFile, long start, byte[] bytes, long lastModified) throws IOException {
+		Path path = iniFile.toPath();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			while (buffer.hasRemaining())
+				channel.write(buffer, start + buffer.position());
 		}
+		
+		long modified = Math.max(System.currentTimeMillis(), lastModified + 1);
+		Files.setLastModifiedTime(path, FileTime.fromMillis(modified));
+		return Files.getLastModifiedTime(path).toMillis() != lastModified;
+	}
+	
+	/**
+	 * Replaces a value with one of a different length. The bytes around the
+	 * value are copied into a temp file by the operating system, without being
+	 * read into memory, and the temp file then replaces the file in one step.
+	 * 
+	 * @param iniFile	The file to write the value in
+	 * @param start		The position of the old value
+	 * @param length	The length of the old value
+	 * @param bytes		The new value
+	 */
+	private static void rewrite(File iniFile, long start, int length, byte[] bytes) throws IOException {
+		File temp = INIFiles.createTempFile(iniFile);
+		
+		try {
+			try (FileChannel in = FileChannel.open(iniFile.toPath(), StandardOpenOption.READ);
+					FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+				transfer(in, 0, start, out);
+				
+				ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				while (buffer.hasRemaining())
+					out.write(buffer);
+				
+				transfer(in, start + length, in.size(), out);
+			}
+			
+			INIFiles.replace(temp, iniFile);
+		} finally {
+			temp.delete();
+		}
+	}
+	
+	/**
+	 * Copies the bytes between two positions of a file to the end of another file.
+	 */
+	private static void transfer(FileChannel in, long from, long to, FileChannel out) throws IOException {
+		while (from < to)
+			from += in.transferTo(from, to - from, out);
+	}
+	
+	/**
+	 * Returns the positions of the elements in a file, scanning the file again if
+	 * it has been changed since it was last scanned.
+	 */
+	private LineIndex index(File iniFile) throws IOException {
+		if (this.index == null || !this.index.iniFile.equals(iniFile) || !this.index.matches(iniFile))
+			this.index = LineIndex.scan(iniFile);
+		
+		return this.index;
+	}
+	
+	/**
+	 * Sets the interpolator that is told about every new value of the element.
+	 * 
+	 * @param interpolator The interpolator that the element is in, or null
+	 */
+	public void setInterpolator(INIInterpolator interpolator) {
+		this.interpolator = interpolator;
+	}
+	
+	/**
+	 * Returns the interpolator that is told about every new value of the element.
+	 * 
+	 * @return The interpolator, or null if there is none
+	 */
+	public INIInterpolator getInterpolator() {
+		return this.interpolator;
 	}
 	
 	/**
@@ -169,4 +424,138 @@ public class INIElementWriter {
 	public INIElement getElement() {
 		return this.element;
 	}
+	
+	/**
+	 * The positions of the values of every element in an INI file. Only the
+	 * first occurrence of a category, and of a key within it, is kept, the same
+	 * as {@link INIDocument}.
+	 */
+	private static class LineIndex {
+		/**
+		 * The file that was scanned
+		 */
+		final File iniFile;
+		
+		/**
+		 * The elements of every category, by key
+		 */
+		final HashMap<String, HashMap<String, Entry>> categories = new HashMap<>();
+		
+		/**
+		 * Every element, in the order they appear in the file
+		 */
+		final ArrayList<Entry> entries = new ArrayList<>();
+		
+		/**
+		 * The size and modification time of the file when it was scanned
+		 */
+		long size, lastModified;
+		
+		/**
+		 * The identity of the file when it was scanned
+		 */
+		Object fileKey;
+		
+		LineIndex(File file) {
+			this.iniFile = file;
+		}
+		
+		static LineIndex scan(File file) throws IOException {
+			LineIndex index = new LineIndex(file);
+			index.stamp(file);
+			
+			INIMappedParser parser = new INIMappedParser(file, INIMappedParser.map(file), Charset.defaultCharset());
+			HashMap<String, Entry> current = null;
+			int limit = parser.size();
+			
+			for (int pos = 0; pos < limit; pos = parser.nextLine(pos)) {
+				byte first = parser.byteAt(pos);
+				int end = parser.lineEnd(pos);
+				
+				if (first == '[') {
+					String category = parser.categoryName(pos, end);
+					current = (index.categories.containsKey(category) ? null : new HashMap<>());
+					if (current != null)
+						index.categories.put(category, current);
+					continue;
+				}
+				
+				if (current == null || first == ';' || first == '#')
+					continue;
+				
+				int split = parser.indexOf((byte) '=', pos, end);
+				if (split == -1)
+					continue;
+				
+				String key = parser.decode(pos, split);
+				if (!current.containsKey(key)) {
+					Entry entry = new Entry(index.entries.size(), split + 1, end - split - 1);
+					current.put(key, entry);
+					index.entries.add(entry);
+				}
+			}
+			
+			index.size = limit;
+			return index;
+		}
+		
+		/**
+		 * Keeps the size, modification time and identity of the file.
+		 */
+		void stamp(File file) throws IOException {
+			BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			this.size = attributes.size();
+			this.lastModified = attributes.lastModifiedTime().toMillis();
+			this.fileKey = attributes.fileKey();
+		}
+		
+		/**
+		 * Checks if the file is still the one that was scanned.
+		 */
+		boolean matches(File file) {
+			BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			} catch (IOException ex) {
+				return false;
+			}
+			
+			return this.size == attributes.size()
+					&& this.lastModified == attributes.lastModifiedTime().toMillis()
+					&& Objects.equals(this.fileKey, attributes.fileKey());
+		}
+		
+		Entry get(String category, String key) {
+			HashMap<String, Entry> keys = this.categories.get(category);
+			return (keys != null ? keys.get(key) : null);
+		}
+		
+		/**
+		 * Changes the length of a value, moving every value after it.
+		 */
+		void update(Entry entry, int length) {
+			int delta = length - entry.length;
+			entry.length = length;
+			
+			if (delta != 0) {
+				for (int i = entry.order + 1; i < this.entries.size(); i++)
+					this.entries.get(i).start += delta;
+			}
+		}
+		
+		/**
+		 * The position of the value of a single element
+		 */
+		static class Entry {
+			final int order;
+			long start;
+			int length;
+			
+			Entry(int order, long start, int length) {
+				this.order = order;
+				this.start = start;
+				this.length = length;
+			}
+		}
+	}
 }
\ No newline at end of file
@@ -1,6 +1,13 @@
 package net.netne.platinumcoding.ini;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
 /**
  * This class is used for creating new categories and elements within a specific
  * INI file. If you want to modify existing elements, see {@link INIElementWriter}.
@@ -92,6 +99,38 @@ import java.io.*;
  * }
  * </pre>
  * 
+ * Each of these methods reads the whole file and writes it back out. If you are
+ * making more than a few changes, start an {@link INIEditSession} with
+ * {@link #begin()} instead, which writes all of the changes at once when it is
+ * committed.
+ * <br /><br />
+ * <pre>
+ * {@code 
+ * INIEditSession session = writer.begin();
+ * session.addCategory("Color");
+ * session.addElement("Color", "Text", "Black");
+ * session.addElement(element);
+ * session.commit();
+ * }
+ * </pre>
+ * 
+ * When new categories and elements are mostly added to the end of a file, turn
+ * on the append mode with {@link #setAppendMode(boolean)}. New categories, and
+ * new elements of the last category in the file, are then appended to the file
+ * instead of rewriting it. The writer remembers which categories are in the file,
+ * so the file is only scanned again when something else has changed it.
+ * <br /><br />
+ * Writers are safe to use from many threads. Changes to the same file are made
+ * one at a time, while changes to different files are made at the same time.
+ * When the file is rewritten, the new content is written to a temp file next to
+ * it, which then replaces the file in a single step, so readers always see
+ * either the old or the new file.
+ * <br /><br />
+ * If a file is changed very often, give the writer an {@link INIJournal} with
+ * {@link #setJournal(INIJournal)}. Every change is then appended to the journal
+ * as a small record, and the file is only rewritten when the journal is
+ * compacted.
+ * 
  * @author Dealer Next Door
  */
 public class INIFileWriter {
@@ -100,6 +139,23 @@ public class INIFileWriter {
 	 */
 	private File iniFile;
 	
+	/**
+	 * If categories and elements are appended to the end of the file when they can be
+	 */
+	private boolean appendMode;
+	
+	/**
+	 * The categories in the file, as of the last time the file was scanned or
+	 * appended to. Only used in append mode.
+	 */
+	private CategoryIndex index;
+	
+	/**
+	 * The journal that changes are appended to instead of the file, if there
+	 * is one.
+	 */
+	private INIJournal journal;
+	
 	/**
 	 * Creates an INIFileWriter that will write elements and categories to the
 	 * specified file.
@@ -117,15 +173,50 @@ public class INIFileWriter {
 	 * @param category The category to be added to the file
 	 */
 	public void addCategory(String category) {
+		if (this.journal != null) {
+			try {
+				this.journal.addCategory(category);
+			} catch (IOException e) {
+				INIInstrumentation.error(this.iniFile, e);
+				e.printStackTrace();
+			}
+			return;
+		}
+		
+		INIInstrumentation.WriteEvent event = INIInstrumentation.write(this.iniFile, "addCategory");
+		boolean written;
+		ReentrantLock lock = INIFiles.lock(this.iniFile);
+		lock.lock();
+		try {
+			if (this.appendMode)
+				written = this.appendCategory(category);
+			else
+				written = this.rewriteCategory(category);
+		} finally {
+			lock.unlock();
+		}
+		
+		if (written)
+			event.finish();
+	}
+	
+	/**
+	 * Adds a category to the end of the file by rewriting the whole file, if
+	 * the file does not already contain it.
+	 * 
+	 * @param category The category to be added to the file
+	 * @return True if the file was changed
+	 */
+	private boolean rewriteCategory(String category) {
 		// Checking to see if the file already contains the desired category
 		boolean containsCategory = false;
-		String fileContent = "";
+		StringBuilder fileContent = new StringBuilder();
 		String string;
 		
 		try (BufferedReader in = new BufferedReader(new FileReader(iniFile))) {
 			while ( (string = in.readLine()) != null) {
-				fileContent += string;
-				fileContent += System.getProperty("line.separator");
+				fileContent.append(string);
+				fileContent.append(System.getProperty("line.separator"));
 				
 				if (!string.equals("")) {
 					// Line is a comment, ignoring
@@ -142,26 +233,41 @@ public class INIFileWriter {
 				}
 			}
 		} catch (IOException e) {
+			INIInstrumentation.error(this.iniFile, e);
 			e.printStackTrace();
 		}
 		
 		// The file does not contain the category, so appeanding it to the end
 		// of the file.
 		if (!containsCategory) {
-			try (BufferedWriter out = new BufferedWriter(new FileWriter(iniFile))) {
-				// Overwritting the old file content with the correct content,
-				// which has a proper newline at the end of the file.
-				out.write(fileContent);
+			File temp = null;
+			
+			try {
+				temp = INIFiles.createTempFile(this.iniFile);
 				
-				if (fileContent.length() != 0)
-					out.newLine();
+				try (BufferedWriter out = new BufferedWriter(new FileWriter(temp))) {
+					// Overwritting the old file content with the correct content,
+					// which has a proper newline at the end of the file.
+					out.write(fileContent.toString());
+					
+					if (fileContent.length() != 0)
+						out.newLine();
+					
+					out.write('[' + category + ']');
+				}
 				
-				out.write('[' + category + ']');
-				out.close();
+				INIFiles.replace(temp, this.iniFile);
+				return true;
 			} catch (IOException e) {
+				INIInstrumentation.error(this.iniFile, e);
 				e.printStackTrace();
+			} finally {
+				if (temp != null)
+					temp.delete();
 			}
 		}
+		
+		return false;
 	}
 	
 	/**
@@ -189,75 +295,125 @@ public class INIFileWriter {
 	public void addElement(INIElement element) {
 		element.setINIFile(this.iniFile);
 		
-		try(BufferedReader in = new BufferedReader(new FileReader(iniFile))) {
-			File temp = new File(".temp.ini");
-			BufferedWriter out = new BufferedWriter(new FileWriter(temp, true));
-			String string;
-			
-			boolean isInSameCategory = false;
-			boolean hasFoundCategory = false;
-			boolean keyExists = false;
+		if (this.journal != null) {
+			try {
+				this.journal.addElement(element.getCategory(), element.getKey(), element.getValue());
+			} catch (IOException e) {
+				INIInstrumentation.error(this.iniFile, e);
+				e.printStackTrace();
+			}
+			return;
+		}
+		
+		INIInstrumentation.WriteEvent event = INIInstrumentation.write(this.iniFile, "addElement");
+		boolean written;
+		ReentrantLock lock = INIFiles.lock(this.iniFile);
+		lock.lock();
+		try {
+			if (this.appendMode && this.canAppend(element)) {
+				written = this.appendElement(element);
+			} else {
+				this.index = null;
+				written = this.insertElement(element);
+			}
+		} finally {
+			lock.unlock();
+		}
+		
+		if (written)
+			event.finish();
+	}
+	
+	/**
+	 * Adds an element to its category by rewriting the whole file.
+	 * 
+	 * @param element The element to be added
+	 * @return True if the file was changed
+	 */
+	private boolean insertElement(INIElement element) {
+		boolean written = false;
+		File temp = null;
+		
+		try {
+			temp = INIFiles.createTempFile(this.iniFile);
 			
-			while ((string = in.readLine()) != null) {
-				String newline = string;
+			try (BufferedReader in = new BufferedReader(new FileReader(iniFile));
+					BufferedWriter out = new BufferedWriter(new FileWriter(temp))) {
+				String string;
 				
-				if (!hasFoundCategory) {
-					// Line is a category, checking if it is the specified one...
-					if (!string.equals("") && string.charAt(0) == '[') {
-						String thisCategory = string.substring(1, string.length() - 1);
-						if (thisCategory.equals(element.getCategory())) {
-							hasFoundCategory = true;
-							isInSameCategory = true;
-						}
-					}
-				} else {
-					// A blank line has been reached under this category, adding
-					// the element to the list.
-					if (string.equals("")) {
-						if (!keyExists) {
-							keyExists = true;
-							out.write(element.getKey() + '=' + element.getValue());
-							out.newLine();
-						}
-					} else
-						// A new category has started
-						if (string.charAt(0) == '[')
-							isInSameCategory = false;
+				boolean isInSameCategory = false;
+				boolean hasFoundCategory = false;
+				boolean keyExists = false;
+				
+				while ((string = in.readLine()) != null) {
+					String newline = string;
 					
-					// Checking if line is an element
-					if (string.contains("=")) {
-						int pos = string.indexOf("=");
-						String key = string.substring(0, pos);
+					if (!hasFoundCategory) {
+						// Line is a category, checking if it is the specified one...
+						if (!string.equals("") && string.charAt(0) == '[') {
+							String thisCategory = string.substring(1, string.length() - 1);
+							if (thisCategory.equals(element.getCategory())) {
+								hasFoundCategory = true;
+								isInSameCategory = true;
+							}
+						}
+					} else {
+						// A blank line has been reached under this category, adding
+						// the element to the list.
+						if (string.equals("")) {
+							if (!keyExists) {
+								keyExists = true;
+								written = true;
+								out.write(element.getKey() + '=' + element.getValue());
+								out.newLine();
+							}
+						} else
+							// A new category has started
+							if (string.charAt(0) == '[')
+								isInSameCategory = false;
 						
-						if (key.equals(element.getKey()) && isInSameCategory)
-							keyExists = true;
+						// Checking if line is an element
+						if (string.contains("=")) {
+							int pos = string.indexOf("=");
+							String key = string.substring(0, pos);
+							
+							if (key.equals(element.getKey()) && isInSameCategory)
+								keyExists = true;
+						}
 					}
+					
+					out.write(newline);
+					out.newLine();
 				}
 				
-				out.write(newline);
-				out.newLine();
+				if (!hasFoundCategory)
+					System.out.println("WARNING: Category " + element.getCategory() + " is not in the INI file");
+				else
+					// This only happens when adding a category to the end of the file
+					// and there is no elements within that category. (A fix is just
+					// adding two new lines after a category at the end of the file,
+					// but this is just to save us any issues.
+					
+					if (!keyExists ) {
+						written = true;
+						out.write(element.getKey() + '=' + element.getValue());
+						out.newLine();
+					}
 			}
 			
-			if (!hasFoundCategory)
-				System.out.println("WARNING: Category " + element.getCategory() + " is not in the INI file");
-			else
-				// This only happens when adding a category to the end of the file
-				// and there is no elements within that category. (A fix is just
-				// adding two new lines after a category at the end of the file,
-				// but this is just to save us any issues.
-				
-				if (!keyExists ) {
-					out.write(element.getKey() + '=' + element.getValue());
-					out.newLine();
-				}
-			
-			in.close();
-			out.close();
+			// The file is left as it is if nothing was added to it
+			if (!written)
+				return false;
 			
-			element.getINIFile().delete();
-			temp.renameTo(element.getINIFile());
+			INIFiles.replace(temp, this.iniFile);
+			return true;
 		} catch(IOException e) {
+			INIInstrumentation.error(this.iniFile, e);
 			e.printStackTrace();
+			return false;
+		} finally {
+			if (temp != null)
+				temp.delete();
 		}
 	}
 
@@ -270,46 +426,243 @@ public class INIFileWriter {
 	 * @param comment 	The comment to be added above the specified category
 	 */
 	public void addComment(String category, Object comment) {
-		File temp = new File(".temp.ini");
+		if (this.journal != null) {
+			try {
+				this.journal.addComment(category, comment);
+			} catch (IOException e) {
+				INIInstrumentation.error(this.iniFile, e);
+				e.printStackTrace();
+			}
+			return;
+		}
+		
+		INIInstrumentation.WriteEvent event = INIInstrumentation.write(this.iniFile, "addComment");
+		boolean written;
+		ReentrantLock lock = INIFiles.lock(this.iniFile);
+		lock.lock();
+		try {
+			this.index = null;
+			written = this.insertComment(category, comment);
+		} finally {
+			lock.unlock();
+		}
 		
-		boolean hasCategory = false;
+		if (written)
+			event.finish();
+	}
+	
+	/**
+	 * Adds a comment above a category by rewriting the whole file.
+	 * 
+	 * @param category 	The category to append the comment above
+	 * @param comment 	The comment to be added above the specified category
+	 * @return True if the file was changed
+	 */
+	private boolean insertComment(String category, Object comment) {
+		File temp = null;
 		String currentLine;
+		boolean written = false;
 		
-		try (BufferedReader in = new BufferedReader(new FileReader(iniFile))) {
-			BufferedWriter out = new BufferedWriter(new FileWriter(temp));
+		try {
+			temp = INIFiles.createTempFile(this.iniFile);
 			
-			while ((currentLine = in.readLine()) != null) {
-				// Instead of appending current line to fileContent before knowing the line is not a category,
-				// check to see if the line is the desired category, append comment, then add the currentLine.
-				
-				if (!currentLine.equals("")) {
-					// Line is not a comment
-					if (currentLine.charAt(0) == '[') {
-						String thisCategory = currentLine.substring(1, currentLine.length() - 1);
-						if (thisCategory.equals(category)) {
-							String cmt = comment.toString();
-							out.write("# " + cmt);
-							out.write(System.getProperty("line.separator"));
+			try (BufferedReader in = new BufferedReader(new FileReader(iniFile));
+					BufferedWriter out = new BufferedWriter(new FileWriter(temp))) {
+				while ((currentLine = in.readLine()) != null) {
+					// Instead of appending current line to fileContent before knowing the line is not a category,
+					// check to see if the line is the desired category, append comment, then add the currentLine.
+					
+					if (!currentLine.equals("")) {
+						// Line is not a comment
+						if (currentLine.charAt(0) == '[') {
+							String thisCategory = currentLine.substring(1, currentLine.length() - 1);
+							if (thisCategory.equals(category)) {
+								written = true;
+								String cmt = comment.toString();
+								out.write("# " + cmt);
+								out.write(System.getProperty("line.separator"));
+							}
 						}
 					}
+					
+					out.write(currentLine);
+					out.write(System.getProperty("line.separator"));
 				}
-				
-				System.out.println(currentLine);
-				out.write(currentLine);
-				out.write(System.getProperty("line.separator"));
 			}
 			
-			out.flush();
-			out.close();
-			in.close();
+			// The file is left as it is if the category was not found
+			if (!written)
+				return false;
 			
-			this.getINIFile().delete();
-			temp.renameTo(this.iniFile);
+			INIFiles.replace(temp, this.iniFile);
+			return true;
 		} catch (IOException e) {
+			INIInstrumentation.error(this.iniFile, e);
 			e.printStackTrace();
+			return false;
+		} finally {
+			if (temp != null)
+				temp.delete();
 		}
 	}
 	
+	/**
+	 * Appends a category to the end of the file, if the file does not already
+	 * contain it.
+	 * 
+	 * @param category The category to be added to the file
+	 * @return True if the file was changed
+	 */
+	private boolean appendCategory(String category) {
+		try {
+			CategoryIndex index = this.index();
+			if (index.categories.contains(category))
+				return false;
+			
+			String separator = System.getProperty("line.separator");
+			StringBuilder text = new StringBuilder();
+			if (index.size > 0) {
+				if (!index.endsWithNewline)
+					text.append(separator);
+				text.append(separator);
+			}
+			text.append('[').append(category).append(']').append(separator);
+			
+			this.append(index, text.toString());
+			
+			index.categories.add(category);
+			index.lastCategory = category;
+			index.lastCategoryOffset = index.size;
+			index.lastKeys = new HashSet<>();
+			return true;
+		} catch (IOException e) {
+			this.index = null;
+			INIInstrumentation.error(this.iniFile, e);
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Checks if an element can be appended to the end of the file, which is
+	 * only the case if its category is the last category in the file.
+	 * 
+	 * @param element The element to be added
+	 * @return False if the file has to be rewritten instead
+	 */
+	private boolean canAppend(INIElement element) {
+		try {
+			CategoryIndex index = this.index();
+			return index.lastCategory != null && index.lastCategory.equals(element.getCategory());
+		} catch (IOException e) {
+			this.index = null;
+			INIInstrumentation.error(this.iniFile, e);
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Appends an element to the end of the file, if the last category in the
+	 * file does not already have its key.
+	 * 
+	 * @param element The element to be added
+	 * @return True if the file was changed
+	 */
+	private boolean appendElement(INIElement element) {
+		try {
+			CategoryIndex index = this.index();
+			if (index.lastKeys == null)
+				index.lastKeys = CategoryIndex.scanKeys(this.iniFile, index.lastCategoryOffset);
+			if (!index.lastKeys.add(element.getKey()))
+				return false;
+			
+			String separator = System.getProperty("line.separator");
+			String text = (index.endsWithNewline ? "" : separator)
+					+ element.getKey() + '=' + element.getValue() + separator;
+			this.append(index, text);
+			return true;
+		} catch (IOException e) {
+			this.index = null;
+			INIInstrumentation.error(this.iniFile, e);
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Appends text to the end of the file and updates the index to match.
+	 */
+	private void append(CategoryIndex index, String text) throws IOException {
+		Files.write(this.iniFile.toPath(), text.getBytes(Charset.defaultCharset()),
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		
+		index.stamp(this.iniFile);
+		index.endsWithNewline = true;
+	}
+	
+	/**
+	 * Returns the categories in the file, scanning the headers of the file again
+	 * if it has been changed since it was last scanned.
+	 */
+	private CategoryIndex index() throws IOException {
+		if (this.index == null || !this.index.matches(this.iniFile))
+			this.index = CategoryIndex.scan(this.iniFile);
+		
+		return this.index;
+	}
+	
+	/**
+	 * Sets if new categories, and new elements of the last category, are
+	 * appended to the end of the file instead of rewriting the file.
+	 * 
+	 * @param append True to turn on the append mode
+	 */
+	public void setAppendMode(boolean append) {
+		this.appendMode = append;
+		this.index = null;
+	}
+	
+	/**
+	 * Checks if new categories and elements are appended to the end of the file
+	 * when they can be.
+	 * 
+	 * @return True if the append mode is on
+	 */
+	public boolean isAppendMode() {
+		return this.appendMode;
+	}
+	
+	/**
+	 * Sets the journal that changes are appended to instead of the file. The
+	 * journal should be for the same INI file as the writer.
+	 * 
+	 * @param journal The journal to append changes to, or null to write changes
+	 * to the file
+	 */
+	public void setJournal(INIJournal journal) {
+		this.journal = journal;
+	}
+	
+	/**
+	 * Returns the journal that changes are appended to instead of the file.
+	 * 
+	 * @return The journal, or null if changes are written to the file
+	 */
+	public INIJournal getJournal() {
+		return this.journal;
+	}
+	
+	/**
+	 * Starts an edit session for the INI file. Nothing is written to the file
+	 * until {@link INIEditSession#commit()} is called.
+	 * 
+	 * @return A new, empty edit session
+	 */
+	public INIEditSession begin() {
+		return new INIEditSession(this.iniFile);
+	}
+	
 	/**
 	 * Gets the current INI file that is being written to.
 	 * 
@@ -318,4 +671,117 @@ public class INIFileWriter {
 	public File getINIFile() {
 		return this.iniFile;
 	}
+	
+	/**
+	 * The categories of an INI file, found by only looking at the first
+	 * character of every line.
+	 */
+	private static class CategoryIndex {
+		/**
+		 * Every category in the file
+		 */
+		final HashSet<String> categories = new HashSet<>();
+		
+		/**
+		 * The last category header in the file, if it is the first header with
+		 * that name, or null
+		 */
+		String lastCategory;
+		
+		/**
+		 * The position of the line after the last category header
+		 */
+		long lastCategoryOffset;
+		
+		/**
+		 * The keys of the last category, or null if they have not been read yet
+		 */
+		HashSet<String> lastKeys;
+		
+		/**
+		 * The size and modification time of the file when it was scanned
+		 */
+		long size, lastModified;
+		
+		/**
+		 * The identity of the file when it was scanned, so that a file that was
+		 * replaced by another one of the same size is scanned again
+		 */
+		Object fileKey;
+		
+		/**
+		 * If the last line of the file ends with a line terminator
+		 */
+		boolean endsWithNewline;
+		
+		static CategoryIndex scan(File file) throws IOException {
+			CategoryIndex index = new CategoryIndex();
+			if (!file.exists())
+				return index;
+			
+			index.stamp(file);
+			
+			INIMappedParser parser = new INIMappedParser(file, INIMappedParser.map(file), Charset.defaultCharset());
+			int limit = parser.size();
+			
+			for (int pos = 0; pos < limit; pos = parser.nextLine(pos)) {
+				if (parser.byteAt(pos) != '[')
+					continue;
+				
+				String category = parser.categoryName(pos, parser.lineEnd(pos));
+				index.lastCategory = (index.categories.add(category) ? category : null);
+				index.lastCategoryOffset = parser.nextLine(pos);
+			}
+			
+			index.size = limit;
+			index.endsWithNewline = (limit == 0 || parser.byteAt(limit - 1) == '\n');
+			return index;
+		}
+		
+		/**
+		 * Keeps the size, modification time and identity of the file.
+		 */
+		void stamp(File file) throws IOException {
+			BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			this.size = attributes.size();
+			this.lastModified = attributes.lastModifiedTime().toMillis();
+			this.fileKey = attributes.fileKey();
+		}
+		
+		/**
+		 * Checks if the file is still the one that was scanned.
+		 */
+		boolean matches(File file) {
+			BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			} catch (IOException ex) {
+				return false;
+			}
+			
+			return this.size == attributes.size()
+					&& this.lastModified == attributes.lastModifiedTime().toMillis()
+					&& Objects.equals(this.fileKey, attributes.fileKey());
+		}
+		
+		static HashSet<String> scanKeys(File file, long offset) throws IOException {
+			HashSet<String> keys = new HashSet<>();
+			INIMappedParser parser = new INIMappedParser(file, INIMappedParser.map(file, offset), Charset.defaultCharset());
+			int limit = parser.size();
+			
+			for (int pos = 0; pos < limit; pos = parser.nextLine(pos)) {
+				int end = parser.lineEnd(pos);
+				
+				// Comments and blank lines
+				if (pos == end || parser.byteAt(pos) == ';' || parser.byteAt(pos) == '#')
+					continue;
+				
+				int split = parser.indexOf((byte) '=', pos, end);
+				if (split != -1)
+					keys.add(parser.decode(pos, split));
+			}
+			
+			return keys;
+		}
+	}
 }
\ No newline at end of file
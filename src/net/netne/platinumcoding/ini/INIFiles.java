@@ -0,0 +1,111 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Helper methods used by the writers for replacing the content of an INI file.
+ * <br /><br />
+ * Writers lock the file that they are changing with {@link #lock(File)}. There
+ * is a fixed number of locks, and every file always uses the same one, so
+ * changes to the same file are made one at a time while changes to most
+ * different files can be made at the same time.
+ *
+ * @author Dealer Next Door
+ */
+final class INIFiles {
+	/**
+	 * The locks that files are spread across
+	 */
+	private static final ReentrantLock[] LOCKS = new ReentrantLock[64];
+
+	static {
+		for (int i = 0; i < LOCKS.length; i++)
+			LOCKS[i] = new ReentrantLock();
+	}
+
+	private INIFiles() {
+	}
+
+	/**
+	 * Gets the lock that has to be held while changing an INI file.
+	 *
+	 * @param file The INI file to be changed
+	 * @return The lock of the file
+	 */
+	static ReentrantLock lock(File file) {
+		int hash = file.toPath().toAbsolutePath().normalize().hashCode();
+		hash ^= (hash >>> 16);
+		return LOCKS[hash & (LOCKS.length - 1)];
+	}
+
+	/**
+	 * Creates a new temp file in the same directory as an INI file, so that it
+	 * can be moved over the INI file without copying it.
+	 *
+	 * @param target The INI file that the temp file will replace
+	 * @return The new, empty temp file
+	 * @throws IOException If the temp file could not be created
+	 */
+	static File createTempFile(File target) throws IOException {
+		File dir = target.getAbsoluteFile().getParentFile();
+		Path temp = Files.createTempFile(dir.toPath(), "." + target.getName() + ".", ".tmp");
+
+		// Temp files are only readable by their owner, so the INI file would lose
+		// its owner, group and permissions when it is replaced
+		try {
+			PosixFileAttributeView view = Files.getFileAttributeView(temp, PosixFileAttributeView.class);
+			if (view != null && target.exists()) {
+				PosixFileAttributes attributes = Files.readAttributes(target.toPath(), PosixFileAttributes.class);
+
+				try {
+					view.setGroup(attributes.group());
+				} catch (IOException ex) {
+					// Not a group of the user that is writing the file
+				}
+				try {
+					view.setOwner(attributes.owner());
+				} catch (IOException ex) {
+					// Only allowed for privileged users
+				}
+
+				view.setPermissions(attributes.permissions());
+			}
+		} catch (IOException | RuntimeException ex) {
+			// The caller never gets the temp file, so it could not delete it
+			try {
+				Files.deleteIfExists(temp);
+			} catch (IOException suppressed) {
+				ex.addSuppressed(suppressed);
+			}
+			throw ex;
+		}
+
+		return temp.toFile();
+	}
+
+	/**
+	 * Replaces an INI file with a temp file in a single step, so that the INI
+	 * file is never missing or half written.
+	 *
+	 * @param temp		The temp file with the new content
+	 * @param target	The INI file to be replaced
+	 * @throws IOException If the file could not be replaced
+	 */
+	static void replace(File temp, File target) throws IOException {
+		Path from = temp.toPath();
+		Path to = target.toPath();
+
+		try {
+			Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package net.netne.platinumcoding.ini;
+
+/**
+ * This interface is used for being told about every line of an INI file while
+ * it is read by an {@link INIStreamParser}.
+ * <br /><br />
+ * The names, keys, values and comments are given as {@link CharSequence}s that
+ * are reused for the next line, so they are only valid until the method returns.
+ * Call {@code toString()} on them to keep them.
+ * <br /><br />
+ * Every method does nothing by default, so only the events that are needed have
+ * to be handled.
+ * 
+ * @author Dealer Next Door
+ */
+public interface INIHandler {
+	/**
+	 * Called for every category header.
+	 * 
+	 * @param name The name of the category, without the braces
+	 */
+	default void onSection(CharSequence name) {
+	}
+	
+	/**
+	 * Called for every element.
+	 * 
+	 * @param key	The key of the element
+	 * @param value	The value of the element
+	 */
+	default void onEntry(CharSequence key, CharSequence value) {
+	}
+	
+	/**
+	 * Called for every comment, and for every line that is neither a category,
+	 * an element nor blank.
+	 * 
+	 * @param text The whole line, including the ';' or '#'
+	 */
+	default void onComment(CharSequence text) {
+	}
+	
+	/**
+	 * Called for every blank line.
+	 */
+	default void onBlank() {
+	}
+}
@@ -0,0 +1,69 @@
+package net.netne.platinumcoding.ini;
+
+/**
+ * Helper methods used by the open addressing hash tables of
+ * {@link INICompactDocument} and {@link INISnapshot}.
+ * <br /><br />
+ * The tables hold the index of every element plus one, so that 0 is an empty
+ * slot, and are at most half full. The tables of a snapshot are written to its
+ * file, so the hashes must never change, or snapshots that were already written
+ * could not be read.
+ *
+ * @author Dealer Next Door
+ */
+final class INIHashTables {
+	private INIHashTables() {
+	}
+
+	/**
+	 * Returns a power of two that keeps a hash table at most half full.
+	 *
+	 * @param count The number of values the table will hold
+	 * @return The size of the table
+	 */
+	static int tableSize(int count) {
+		return Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+	}
+
+	/**
+	 * Hashes the name of a category.
+	 *
+	 * @param name The name of the category
+	 * @return The hash of the category
+	 */
+	static int hash(String name) {
+		int hash = name.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Hashes the key of an element, together with the index of its category, so
+	 * that the elements of every category can share one table.
+	 *
+	 * @param category	The index of the category
+	 * @param key		The key of the element
+	 * @return The hash of the element
+	 */
+	static int hash(int category, String key) {
+		int hash = category * 0x9E3779B9 + key.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Puts a value in the first empty slot of a table, starting at the slot of
+	 * its hash.
+	 *
+	 * @param table	The hash table
+	 * @param hash	The hash of the value
+	 * @param value	The value, which is held plus one
+	 */
+	static void insert(int[] table, int hash, int value) {
+		int mask = table.length - 1;
+		int slot = hash & mask;
+
+		while (table[slot] != 0)
+			slot = (slot + 1) & mask;
+
+		table[slot] = value + 1;
+	}
+}
@@ -0,0 +1,435 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Reports the work done by the readers and writers, both to Java Flight Recorder
+ * and to any {@link INIMetricsListener}s that have been added.
+ * <br /><br />
+ * The following events are recorded by JFR, under the "INIParser" category:
+ * <ul>
+ * <li><b>net.netne.platinumcoding.ini.Parse</b>: a whole INI file was parsed into
+ * an {@link INIDocument}</li>
+ * <li><b>net.netne.platinumcoding.ini.Lookup</b>: an {@link INIReader} looked up
+ * a category or counted the categories, either from a parsed document or by
+ * reading the file</li>
+ * <li><b>net.netne.platinumcoding.ini.Write</b>: an {@link INIFileWriter} or
+ * {@link INIElementWriter} changed an INI file</li>
+ * <li><b>net.netne.platinumcoding.ini.Error</b>: an INI file could not be read or
+ * written</li>
+ * </ul>
+ * Every event has the file and its duration, and the events that read or write
+ * the file also have the number of bytes and lines. The events are disabled
+ * until they are turned on in the recording settings, such as with
+ * {@code -XX:StartFlightRecording:settings=profile}, and cost almost nothing
+ * while they are disabled.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * INIMetrics metrics = new INIMetrics();
+ * INIInstrumentation.addListener(metrics);
+ *
+ * // ...
+ *
+ * System.out.println(metrics.getScanCount() + " scans, " + metrics.getHitCount() + " hits");
+ * System.out.println("99% of scans took less than "
+ *	+ metrics.getScanLatency().getPercentile(99) + " ns");
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * @author Dealer Next Door
+ */
+public final class INIInstrumentation {
+	/**
+	 * Every listener that is told about the work done
+	 */
+	private static final CopyOnWriteArrayList<INIMetricsListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+	/**
+	 * The type of the lookup events, to check if they are being recorded
+	 */
+	private static final EventType LOOKUP = EventType.getEventType(LookupEvent.class);
+
+	private INIInstrumentation() {
+	}
+
+	/**
+	 * Adds a listener that is told about the work done by every reader and
+	 * writer.
+	 *
+	 * @param listener The listener to be added
+	 */
+	public static void addListener(INIMetricsListener listener) {
+		LISTENERS.addIfAbsent(listener);
+	}
+
+	/**
+	 * Removes a listener, so that it is no longer told about the work done.
+	 *
+	 * @param listener The listener to be removed
+	 */
+	public static void removeListener(INIMetricsListener listener) {
+		LISTENERS.remove(listener);
+	}
+
+	/**
+	 * Starts timing the parse of a whole INI file.
+	 *
+	 * @param file The INI file that is being parsed
+	 * @return The event, which has to be finished once the file is parsed
+	 */
+	static ParseEvent parse(File file) {
+		return new ParseEvent(file);
+	}
+
+	/**
+	 * Starts timing a lookup by an INIReader.
+	 *
+	 * @param file		The INI file that is being read
+	 * @param category	The category that is being looked up, or null if the
+	 * categories are being counted
+	 * @return The event, which has to be finished once the lookup is done
+	 */
+	static LookupEvent lookup(File file, String category) {
+		// Lookups are the most frequent events, so nothing is created for them
+		// unless they are being recorded
+		if (LISTENERS.isEmpty() && !LOOKUP.isEnabled())
+			return LookupEvent.NONE;
+
+		return new LookupEvent(file, category);
+	}
+
+	/**
+	 * Starts timing a lookup of many categories by an INIReader. The categories
+	 * are only joined into the event's label if the lookup is being recorded.
+	 *
+	 * @param file			The INI file that is being read
+	 * @param categories	The categories that are being looked up
+	 * @return The event, which has to be finished once the lookup is done
+	 */
+	static LookupEvent lookupAll(File file, Collection<String> categories) {
+		if (LISTENERS.isEmpty() && !LOOKUP.isEnabled())
+			return LookupEvent.NONE;
+
+		return new LookupEvent(file, String.valueOf(categories));
+	}
+
+	/**
+	 * Starts timing a lookup of every category that starts with a prefix by an
+	 * INIReader. The event's label is only made if the lookup is being recorded.
+	 *
+	 * @param file		The INI file that is being read
+	 * @param prefix	The start of the category names
+	 * @return The event, which has to be finished once the lookup is done
+	 */
+	static LookupEvent lookupPrefix(File file, String prefix) {
+		if (LISTENERS.isEmpty() && !LOOKUP.isEnabled())
+			return LookupEvent.NONE;
+
+		return new LookupEvent(file, prefix + '*');
+	}
+
+	/**
+	 * Starts timing a change to an INI file.
+	 *
+	 * @param file		The INI file that is being changed
+	 * @param operation	The name of the method that is changing the file
+	 * @return The event, which has to be finished once the file is changed
+	 */
+	static WriteEvent write(File file, String operation) {
+		return new WriteEvent(file, operation);
+	}
+
+	/**
+	 * Reports an error that is not thrown to the caller.
+	 *
+	 * @param file	The INI file that could not be used
+	 * @param error	The error
+	 */
+	static void error(File file, IOException error) {
+		ErrorEvent event = new ErrorEvent();
+		if (event.shouldCommit()) {
+			event.file = String.valueOf(file);
+			event.message = error.toString();
+			event.commit();
+		}
+
+		for (INIMetricsListener listener : LISTENERS) {
+			try {
+				listener.onError(file, error);
+			} catch (RuntimeException ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	@Name("net.netne.platinumcoding.ini.Parse")
+	@Label("INI Parse")
+	@Category("INIParser")
+	@Description("A whole INI file was parsed into a document")
+	static final class ParseEvent extends Event {
+		@Label("File")
+		String file;
+
+		@Label("Size")
+		@DataAmount
+		long bytes;
+
+		@Label("Lines")
+		int lines;
+
+		private final transient File iniFile;
+		private final transient long start = System.nanoTime();
+
+		/**
+		 * The size and lines of the file, if it had to be parsed for the lookup
+		 */
+		private transient long parsedBytes = -1;
+		private transient int parsedLines;
+
+		ParseEvent(File file) {
+			this.iniFile = file;
+			this.begin();
+		}
+
+		/**
+		 * Ends the event once the file has been parsed.
+		 *
+		 * @param bytes	The size of the file
+		 * @param lines	The number of lines that were read
+		 */
+		void finish(long bytes, int lines) {
+			long nanos = System.nanoTime() - this.start;
+
+			this.end();
+			if (this.shouldCommit()) {
+				this.file = String.valueOf(this.iniFile);
+				this.bytes = bytes;
+				this.lines = lines;
+				this.commit();
+			}
+
+			for (INIMetricsListener listener : LISTENERS) {
+				try {
+					listener.onParse(this.iniFile, bytes, lines, nanos);
+				} catch (RuntimeException ex) {
+					ex.printStackTrace();
+				}
+			}
+		}
+	}
+
+	@Name("net.netne.platinumcoding.ini.Lookup")
+	@Label("INI Lookup")
+	@Category("INIParser")
+	@Description("An INIReader looked up a category or counted the categories")
+	static final class LookupEvent extends Event {
+		/**
+		 * Given out for every lookup while nothing is recording them, and never
+		 * committed
+		 */
+		static final LookupEvent NONE = new LookupEvent(null, null);
+
+		@Label("File")
+		String file;
+
+		@Label("Category")
+		@Description("The category that was looked up, or null if the categories were counted")
+		String category;
+
+		@Label("Cached")
+		@Description("If the lookup was answered from a parsed document instead of the file")
+		boolean cached;
+
+		@Label("Bytes Read")
+		@DataAmount
+		long bytes;
+
+		@Label("Lines Scanned")
+		int lines;
+
+		private final transient File iniFile;
+		private final transient String lookup;
+		private final transient long start = System.nanoTime();
+
+		/**
+		 * The size and lines of the file, if it had to be parsed for the lookup
+		 */
+		private transient long parsedBytes = -1;
+		private transient int parsedLines;
+
+		LookupEvent(File file, String category) {
+			this.iniFile = file;
+			this.lookup = category;
+			this.begin();
+		}
+
+		/**
+		 * Notes that the whole file had to be parsed to answer the lookup, so
+		 * that it is not reported as a cached hit.
+		 *
+		 * @param bytes	The size of the file
+		 * @param lines	The number of lines that were read
+		 */
+		void parsed(long bytes, int lines) {
+			if (this == NONE)
+				return;
+
+			this.parsedBytes = bytes;
+			this.parsedLines = lines;
+		}
+
+		/**
+		 * Ends the event once the lookup has been answered from a parsed document.
+		 * If the document had to be parsed for the lookup, it is reported as a
+		 * scan of the file instead.
+		 */
+		void hit() {
+			if (this == NONE)
+				return;
+			if (this.parsedBytes >= 0) {
+				this.scanned(this.parsedBytes, this.parsedLines);
+				return;
+			}
+
+			long nanos = System.nanoTime() - this.start;
+
+			this.end();
+			if (this.shouldCommit()) {
+				this.set(true, 0, 0);
+				this.commit();
+			}
+
+			for (INIMetricsListener listener : LISTENERS) {
+				try {
+					listener.onHit(this.iniFile, nanos);
+				} catch (RuntimeException ex) {
+					ex.printStackTrace();
+				}
+			}
+		}
+
+		/**
+		 * Ends the event once the lookup has been answered by reading the file.
+		 *
+		 * @param bytes	The number of bytes that were read
+		 * @param lines	The number of lines that were read
+		 */
+		void scanned(long bytes, int lines) {
+			if (this == NONE)
+				return;
+
+			long nanos = System.nanoTime() - this.start;
+
+			this.end();
+			if (this.shouldCommit()) {
+				this.set(false, bytes, lines);
+				this.commit();
+			}
+
+			for (INIMetricsListener listener : LISTENERS) {
+				try {
+					listener.onScan(this.iniFile, bytes, lines, nanos);
+				} catch (RuntimeException ex) {
+					ex.printStackTrace();
+				}
+			}
+		}
+
+		private void set(boolean cached, long bytes, int lines) {
+			this.file = String.valueOf(this.iniFile);
+			this.category = this.lookup;
+			this.cached = cached;
+			this.bytes = bytes;
+			this.lines = lines;
+		}
+	}
+
+	@Name("net.netne.platinumcoding.ini.Write")
+	@Label("INI Write")
+	@Category("INIParser")
+	@Description("An INI file was changed by a writer")
+	static final class WriteEvent extends Event {
+		@Label("File")
+		String file;
+
+		@Label("Operation")
+		String operation;
+
+		@Label("Size")
+		@Description("The size of the file after the change")
+		@DataAmount
+		long bytes;
+
+		private final transient File iniFile;
+		private final transient String method;
+		private final transient long start = System.nanoTime();
+
+		/**
+		 * The size and lines of the file, if it had to be parsed for the lookup
+		 */
+		private transient long parsedBytes = -1;
+		private transient int parsedLines;
+
+		WriteEvent(File file, String operation) {
+			this.iniFile = file;
+			this.method = operation;
+			this.begin();
+		}
+
+		/**
+		 * Ends the event once the file has been changed. Events of writes that
+		 * did not change the file are never finished, so they are not reported.
+		 */
+		void finish() {
+			long nanos = System.nanoTime() - this.start;
+
+			this.end();
+			boolean commit = this.shouldCommit();
+			if (!commit && LISTENERS.isEmpty())
+				return;
+
+			long bytes = this.iniFile.length();
+			if (commit) {
+				this.file = String.valueOf(this.iniFile);
+				this.operation = this.method;
+				this.bytes = bytes;
+				this.commit();
+			}
+
+			for (INIMetricsListener listener : LISTENERS) {
+				try {
+					listener.onWrite(this.iniFile, this.method, bytes, nanos);
+				} catch (RuntimeException ex) {
+					ex.printStackTrace();
+				}
+			}
+		}
+	}
+
+	@Name("net.netne.platinumcoding.ini.Error")
+	@Label("INI Error")
+	@Category("INIParser")
+	@Description("An INI file could not be read or written")
+	static final class ErrorEvent extends Event {
+		@Label("File")
+		String file;
+
+		@Label("Message")
+		String message;
+	}
+}
@@ -0,0 +1,416 @@
+package net.netne.platinumcoding.ini;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is used for values that refer to other values, so that base paths
+ * and host names only have to be written once.
+ * <br /><br />
+ * A reference is written as <code>${category:key}</code>, or as
+ * <code>${key}</code> for an element of the same category, and is replaced by the
+ * value of that element. The value it refers to can have references of its own.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * ; Paths.ini
+ * [Paths]
+ * Base=/opt/app
+ * Logs=${Base}/logs
+ *
+ * [Server]
+ * Log=${Paths:Logs}/server.log
+ * }
+ * </pre>
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * INIDocument document = INIDocument.load(new java.io.File("Paths.ini"));
+ * INIInterpolator interpolator = new INIInterpolator(document);
+ *
+ * System.out.println(interpolator.get("Server", "Log"));	// /opt/app/logs/server.log
+ *
+ * // Changing Base, which only forgets the values of Logs and Log
+ * INIElementWriter writer = new INIElementWriter(document.get("Paths", "Base"));
+ * writer.setInterpolator(interpolator);
+ * writer.setValue("/srv/app");
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * Every value is split into text and references once, when the interpolator is
+ * created, and the interpolator keeps which elements every element refers to. A
+ * value is only worked out the first time it is asked for, and is kept after
+ * that. When an element changes, through an {@link INIElementWriter} that has the
+ * interpolator, {@link #setValue(String, String, Object)}, or an
+ * {@link INIChangeEvent} from an {@link INIWatcher}, only the kept values of the
+ * elements that depend on it are forgotten.
+ * <br /><br />
+ * A reference to an element that does not exist is left as it is. The category
+ * of a reference is everything before the first ':'. If elements refer to each
+ * other in a cycle, asking for any of their values throws an
+ * {@link IllegalStateException} that names the cycle. Interpolators are safe to
+ * use from many threads.
+ *
+ * @author Dealer Next Door
+ */
+public class INIInterpolator implements INIChangeListener {
+	/**
+	 * The value of every element, split into text and references
+	 */
+	private final HashMap<Ref, Template> templates = new HashMap<>();
+
+	/**
+	 * The elements that refer to every element, including the elements that
+	 * do not exist yet
+	 */
+	private final HashMap<Ref, HashSet<Ref>> dependents = new HashMap<>();
+
+	/**
+	 * The values that have been worked out so far
+	 */
+	private final ConcurrentHashMap<Ref, String> resolved = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates an interpolator for the elements of a document. Only the first
+	 * occurrence of a category, and of a key within it, is used, the same as
+	 * {@link INIDocument}.
+	 *
+	 * @param document The document whose values refer to each other
+	 */
+	public INIInterpolator(INIDocument document) {
+		for (INIDocument.Section section : document.sections()) {
+			for (INIElement element : section.elements) {
+				if (section.keys.get(element.getKey()) == element)
+					this.put(new Ref(section.name, element.getKey()), String.valueOf(element.getValue()));
+			}
+		}
+	}
+
+	/**
+	 * Gets the value of an element, with every reference replaced.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @return The value of the element, or null if it does not exist
+	 * @throws IllegalStateException If the element depends on itself
+	 */
+	public String get(String category, String key) {
+		Ref ref = new Ref(category, key);
+		String value = this.resolved.get(ref);
+		if (value != null)
+			return value;
+
+		synchronized (this) {
+			return this.resolve(ref, new LinkedHashSet<>());
+		}
+	}
+
+	/**
+	 * Gets the value of an element, with every reference replaced.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @param def		The value to return if the element does not exist
+	 * @return The value of the element, or the default value
+	 * @throws IllegalStateException If the element depends on itself
+	 */
+	public String getString(String category, String key, String def) {
+		String value = this.get(category, key);
+		return (value != null ? value : def);
+	}
+
+	/**
+	 * Replaces every reference in a piece of text.
+	 *
+	 * @param category	The category that references without a category are to
+	 * @param text		The text to be interpolated
+	 * @return The text with every reference replaced
+	 * @throws IllegalStateException If a referred element depends on itself
+	 */
+	public String interpolate(String category, String text) {
+		Template template = Template.parse(category, text);
+		if (template.refs.isEmpty())
+			return text;
+
+		synchronized (this) {
+			return this.render(template, new LinkedHashSet<>());
+		}
+	}
+
+	/**
+	 * Changes the value of an element, or adds it if it does not exist. Only
+	 * the elements that depend on it have to be worked out again.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @param value		The new value of the element, before it is interpolated
+	 */
+	public synchronized void setValue(String category, String key, Object value) {
+		Ref ref = new Ref(category, key);
+		this.remove(ref);
+		this.put(ref, String.valueOf(value));
+		this.invalidate(ref);
+	}
+
+	/**
+	 * Removes an element. The elements that depend on it keep their reference
+	 * to it as it is.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 */
+	public synchronized void remove(String category, String key) {
+		Ref ref = new Ref(category, key);
+		this.remove(ref);
+		this.invalidate(ref);
+	}
+
+	/**
+	 * Tells the interpolator that an element has a new value.
+	 *
+	 * @param element The element that was changed
+	 */
+	void changed(INIElement element) {
+		this.setValue(element.getCategory(), element.getKey(), element.getValue());
+	}
+
+	/**
+	 * Changes the elements that were added, removed and changed in the file.
+	 *
+	 * @param event The elements that have changed
+	 */
+	@Override
+	public synchronized void changed(INIChangeEvent event) {
+		for (INIElement element : event.getRemoved())
+			this.remove(element.getCategory(), element.getKey());
+		for (INIElement element : event.getAdded())
+			this.changed(element);
+		for (INIElement element : event.getChanged())
+			this.changed(element);
+	}
+
+	/**
+	 * Checks if the value of an element has been worked out and kept.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @return True if the value is kept
+	 */
+	public boolean isResolved(String category, String key) {
+		return this.resolved.containsKey(new Ref(category, key));
+	}
+
+	/**
+	 * Adds the value of an element and the elements it refers to. Must hold the
+	 * lock of the interpolator, unless it is still being created.
+	 */
+	private void put(Ref ref, String value) {
+		Template template = Template.parse(ref.category, value);
+		this.templates.put(ref, template);
+
+		for (Ref target : template.refs)
+			this.dependents.computeIfAbsent(target, t -> new HashSet<>()).add(ref);
+	}
+
+	/**
+	 * Removes the value of an element and the elements it refers to.
+	 */
+	private void remove(Ref ref) {
+		Template template = this.templates.remove(ref);
+		if (template == null)
+			return;
+
+		for (Ref target : template.refs) {
+			HashSet<Ref> refs = this.dependents.get(target);
+			if (refs != null && refs.remove(ref) && refs.isEmpty())
+				this.dependents.remove(target);
+		}
+	}
+
+	/**
+	 * Forgets the kept value of an element, and of every element that depends
+	 * on it, directly or not.
+	 */
+	private void invalidate(Ref ref) {
+		HashSet<Ref> seen = new HashSet<>();
+		ArrayDeque<Ref> queue = new ArrayDeque<>();
+		queue.add(ref);
+
+		while (!queue.isEmpty()) {
+			Ref next = queue.poll();
+			if (!seen.add(next))
+				continue;
+
+			this.resolved.remove(next);
+
+			HashSet<Ref> refs = this.dependents.get(next);
+			if (refs != null)
+				queue.addAll(refs);
+		}
+	}
+
+	/**
+	 * Works out the value of an element. Must hold the lock of the interpolator.
+	 *
+	 * @param ref		The element
+	 * @param resolving	The elements that are being worked out, in order, to
+	 * find cycles
+	 * @return The value, or null if the element does not exist
+	 */
+	private String resolve(Ref ref, LinkedHashSet<Ref> resolving) {
+		String value = this.resolved.get(ref);
+		if (value != null)
+			return value;
+
+		Template template = this.templates.get(ref);
+		if (template == null)
+			return null;
+
+		if (!resolving.add(ref)) {
+			StringBuilder cycle = new StringBuilder();
+			boolean inCycle = false;
+			for (Ref r : resolving) {
+				inCycle |= r.equals(ref);
+				if (inCycle)
+					cycle.append(r).append(" -> ");
+			}
+			throw new IllegalStateException("The values refer to each other in a cycle: " + cycle + ref);
+		}
+
+		value = this.render(template, resolving);
+		resolving.remove(ref);
+
+		this.resolved.put(ref, value);
+		return value;
+	}
+
+	private String render(Template template, LinkedHashSet<Ref> resolving) {
+		if (template.refs.isEmpty())
+			return template.text;
+
+		StringBuilder builder = new StringBuilder();
+		for (Object part : template.parts) {
+			if (part instanceof Reference) {
+				Reference reference = (Reference) part;
+				String value = this.resolve(reference.ref, resolving);
+				builder.append(value != null ? value : reference.text);
+			} else {
+				builder.append((String) part);
+			}
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * The category and key of an element.
+	 */
+	private static final class Ref {
+		final String category, key;
+
+		Ref(String category, String key) {
+			this.category = category;
+			this.key = key;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Ref))
+				return false;
+
+			Ref other = (Ref) obj;
+			return this.category.equals(other.category) && this.key.equals(other.key);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.category.hashCode() * 31 + this.key.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return this.category + ':' + this.key;
+		}
+	}
+
+	/**
+	 * A reference in a value, as it was written.
+	 */
+	private static final class Reference {
+		final Ref ref;
+		final String text;
+
+		Reference(Ref ref, String text) {
+			this.ref = ref;
+			this.text = text;
+		}
+	}
+
+	/**
+	 * A value split into text and references.
+	 */
+	private static final class Template {
+		/**
+		 * The whole value, before it is interpolated
+		 */
+		final String text;
+
+		/**
+		 * The pieces of text and the references, in order, or null if there are
+		 * no references
+		 */
+		final Object[] parts;
+
+		/**
+		 * The elements that the value refers to
+		 */
+		final ArrayList<Ref> refs;
+
+		private Template(String text, Object[] parts, ArrayList<Ref> refs) {
+			this.text = text;
+			this.parts = parts;
+			this.refs = refs;
+		}
+
+		static Template parse(String category, String text) {
+			ArrayList<Object> parts = new ArrayList<>();
+			ArrayList<Ref> refs = new ArrayList<>();
+			int pos = 0;
+
+			for (;;) {
+				int start = text.indexOf("${", pos);
+				int end = (start != -1 ? text.indexOf('}', start + 2) : -1);
+				if (end == -1)
+					break;
+
+				if (start > pos)
+					parts.add(text.substring(pos, start));
+
+				String name = text.substring(start + 2, end);
+				int split = name.indexOf(':');
+				Ref ref = (split != -1
+						? new Ref(name.substring(0, split), name.substring(split + 1))
+						: new Ref(category, name));
+				parts.add(new Reference(ref, text.substring(start, end + 1)));
+				refs.add(ref);
+
+				pos = end + 1;
+			}
+
+			if (refs.isEmpty())
+				return new Template(text, null, refs);
+
+			if (pos < text.length())
+				parts.add(text.substring(pos));
+
+			return new Template(text, parts.toArray(), refs);
+		}
+	}
+}
@@ -0,0 +1,674 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * This class is used for changing an INI file many times without rewriting it
+ * every time.
+ * <br /><br />
+ * Every change is appended to a journal file next to the INI file, as a small
+ * record, instead of being written to the INI file itself. Appending a change
+ * takes the same time no matter how large the INI file is. {@link #load()} reads
+ * the INI file and replays the journal over it, so the document has every
+ * change. Once the journal is large enough, it is compacted in the background:
+ * the changes are written into a new INI file, which replaces the old one, and
+ * the journal starts over.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * java.io.File iniFile = new java.io.File("Example.ini");
+ * INIJournal journal = INIJournal.open(iniFile);
+ *
+ * INIFileWriter writer = new INIFileWriter(iniFile);
+ * writer.setJournal(journal);
+ * writer.addElement("Window", "Fullscreen", false);	// Appended to Example.ini.journal
+ *
+ * INIDocument document = journal.load();	// Has the new element
+ *
+ * journal.close();
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * A change is safe on disk once the journal has been synced. By default every
+ * change is synced before it returns, and changes made at the same time by
+ * different threads share a single sync. A journal can instead sync on a fixed
+ * interval, which is faster but can lose the changes of the last interval if the
+ * computer crashes. A record that was only partly written when the program
+ * stopped is detected by its checksum and ignored.
+ * <br /><br />
+ * While a journal is used, the INI file itself does not have the newest changes
+ * until it is compacted, so it should be read through {@link #load()}. The changes
+ * follow the same rules as an {@link INIEditSession}.
+ *
+ * @author Dealer Next Door
+ */
+public class INIJournal implements Closeable {
+	/**
+	 * The kinds of records in the journal
+	 */
+	private static final byte CATEGORY = 1, ELEMENT = 2, COMMENT = 3, VALUE = 4, COMPACTED = 5;
+
+	/**
+	 * The size of the length and checksum before every record
+	 */
+	private static final int RECORD_HEADER = 8;
+
+	/**
+	 * The INI file that the changes are made to.
+	 */
+	private final File iniFile;
+
+	/**
+	 * The file that the changes are appended to
+	 */
+	private final File journalFile;
+
+	private final FileChannel channel;
+
+	/**
+	 * How often the journal is synced, or 0 to sync every change before it
+	 * returns
+	 */
+	private final long syncMillis;
+
+	/**
+	 * The size of the journal that makes it be compacted
+	 */
+	private final long compactBytes;
+
+	/**
+	 * Held while records are appended, and while the journal is being reset
+	 */
+	private final ReentrantLock appendLock = new ReentrantLock();
+
+	/**
+	 * Held while the journal is being synced
+	 */
+	private final Object syncLock = new Object();
+
+	/**
+	 * The number of bytes ever appended to the journal, and the number of those
+	 * that are known to be on disk
+	 */
+	private long appended;
+	private volatile long synced;
+
+	private final AtomicBoolean compacting = new AtomicBoolean();
+	private final ExecutorService compactor;
+	private final ScheduledExecutorService syncer;
+
+	private volatile boolean closed;
+
+	/**
+	 * Opens the journal of an INI file, which is the file with ".journal" added
+	 * to its name. Every change is synced before it returns, and the journal is
+	 * compacted once it is larger than 1 MB.
+	 *
+	 * @param ini The INI file that the changes are made to
+	 * @return The opened journal
+	 * @throws IOException If the journal could not be opened
+	 */
+	public static INIJournal open(File ini) throws IOException {
+		return new INIJournal(ini, new File(ini.getPath() + ".journal"), 0, 1024 * 1024);
+	}
+
+	/**
+	 * Opens the journal of an INI file.
+	 *
+	 * @param ini			The INI file that the changes are made to
+	 * @param journal		The file that the changes are appended to
+	 * @param syncMillis	How often the journal is synced in milliseconds, or 0 to
+	 * sync every change before it returns
+	 * @param compactBytes	The size of the journal that makes it be compacted
+	 * @throws IOException If the journal could not be opened
+	 */
+	public INIJournal(File ini, File journal, long syncMillis, long compactBytes) throws IOException {
+		if (syncMillis < 0)
+			throw new IllegalArgumentException("syncMillis must not be negative: " + syncMillis);
+
+		this.iniFile = ini;
+		this.journalFile = journal;
+		this.syncMillis = syncMillis;
+		this.compactBytes = compactBytes;
+		this.channel = FileChannel.open(journal.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		// Cutting off a record that was only partly written, so that new records
+		// are not appended after it
+		ArrayList<Record> records = new ArrayList<>();
+		long valid = this.scan(records, 0, Long.MAX_VALUE);
+
+		// A compaction that replaced the INI file but stopped before emptying the
+		// journal is finished here
+		if (!records.isEmpty() && this.isCompacted(records.get(records.size() - 1)))
+			valid = 0;
+
+		if (valid < this.channel.size()) {
+			this.channel.truncate(valid);
+			this.channel.force(false);
+		}
+		this.channel.position(valid);
+
+		this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "INIJournal compactor");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		if (syncMillis > 0) {
+			this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "INIJournal sync");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.syncer.scheduleWithFixedDelay(this::syncQuietly, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+		} else {
+			this.syncer = null;
+		}
+	}
+
+	/**
+	 * Adds a category to the end of the file, if the file does not already
+	 * contain it.
+	 *
+	 * @param category The category to be added to the file
+	 * @throws IOException If the change could not be appended
+	 */
+	public void addCategory(String category) throws IOException {
+		this.append(CATEGORY, category, "", "");
+	}
+
+	/**
+	 * Adds an element to the desired category. If the element already exists,
+	 * it is not overwritten.
+	 *
+	 * @param category	The desired category to add the element to
+	 * @param key		The key that will represent the element
+	 * @param value		The value of the element
+	 * @throws IOException If the change could not be appended
+	 */
+	public void addElement(String category, String key, Object value) throws IOException {
+		this.append(ELEMENT, category, key, String.valueOf(value));
+	}
+
+	/**
+	 * Adds a comment to the line directly above the specified category.
+	 *
+	 * @param category	The category to add the comment above
+	 * @param comment	The comment to be added above the category
+	 * @throws IOException If the change could not be appended
+	 */
+	public void addComment(String category, Object comment) throws IOException {
+		this.append(COMMENT, category, "", comment.toString());
+	}
+
+	/**
+	 * Changes the value of an element that is already in the file. Nothing is
+	 * done if the element does not exist.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @param value		The new value of the element
+	 * @throws IOException If the change could not be appended
+	 */
+	public void setValue(String category, String key, Object value) throws IOException {
+		this.append(VALUE, category, key, String.valueOf(value));
+	}
+
+	/**
+	 * Reads the INI file and replays every change in the journal over it.
+	 *
+	 * @return The INI file with every change made to it
+	 * @throws IOException If the INI file or the journal could not be read
+	 */
+	public INIDocument load() throws IOException {
+		String base;
+		List<Record> records;
+
+		// Both are read under the locks that a compaction holds, so that the
+		// changes are never moved from the journal into the INI file in between
+		ReentrantLock fileLock = INIFiles.lock(this.iniFile);
+		fileLock.lock();
+		this.appendLock.lock();
+		try {
+			base = readText(this.iniFile);
+			records = this.records(this.channel.position());
+		} finally {
+			this.appendLock.unlock();
+			fileLock.unlock();
+		}
+
+		String text = this.replay(base, records);
+		return INIDocument.parse(this.iniFile, new BufferedReader(new StringReader(text)));
+	}
+
+	/**
+	 * Makes sure that every change appended so far is on disk.
+	 *
+	 * @throws IOException If the journal could not be synced
+	 */
+	public void sync() throws IOException {
+		long target;
+		this.appendLock.lock();
+		try {
+			target = this.appended;
+		} finally {
+			this.appendLock.unlock();
+		}
+
+		this.sync(target);
+	}
+
+	/**
+	 * Syncs the journal, unless another thread already synced it after the
+	 * record that ends at the target was appended.
+	 */
+	private void sync(long target) throws IOException {
+		if (this.synced >= target)
+			return;
+
+		synchronized (this.syncLock) {
+			if (this.synced >= target)
+				return;
+
+			long end;
+			this.appendLock.lock();
+			try {
+				end = this.appended;
+			} finally {
+				this.appendLock.unlock();
+			}
+
+			this.channel.force(false);
+			this.synced = Math.max(this.synced, end);
+		}
+	}
+
+	private void syncQuietly() {
+		try {
+			this.sync();
+		} catch (IOException ex) {
+			INIInstrumentation.error(this.journalFile, ex);
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes every change in the journal into the INI file, then empties the
+	 * journal.
+	 *
+	 * @throws IOException If the INI file could not be written
+	 */
+	public void compact() throws IOException {
+		// The changes so far are replayed without stopping new changes from being
+		// appended, which only have to be replayed once the journal is locked
+		long end;
+		this.appendLock.lock();
+		try {
+			end = this.channel.position();
+		} finally {
+			this.appendLock.unlock();
+		}
+
+		if (end == 0)
+			return;
+
+		// The INI file is read under its lock, so that no other writer can change
+		// it before it is replaced
+		ReentrantLock fileLock = INIFiles.lock(this.iniFile);
+		fileLock.lock();
+		try {
+			String text = this.replay(readText(this.iniFile), this.records(end));
+
+			this.appendLock.lock();
+			try {
+				List<Record> tail = this.records(end, this.channel.position());
+				if (!tail.isEmpty())
+					text = this.replay(text, tail);
+
+				File temp = INIFiles.createTempFile(this.iniFile);
+				try {
+					Files.write(temp.toPath(), text.getBytes(Charset.defaultCharset()));
+					BasicFileAttributes attributes = Files.readAttributes(temp.toPath(), BasicFileAttributes.class);
+
+					// If the program stops after the INI file is replaced but before the
+					// journal is emptied, this record shows that the journal is already
+					// in the INI file
+					ByteArrayOutputStream marker = new ByteArrayOutputStream();
+					try (DataOutputStream out = new DataOutputStream(marker)) {
+						out.writeByte(COMPACTED);
+						out.writeLong(attributes.size());
+						out.writeLong(attributes.lastModifiedTime().toMillis());
+					}
+					this.write(marker.toByteArray());
+					this.channel.force(false);
+
+					INIFiles.replace(temp, this.iniFile);
+				} finally {
+					temp.delete();
+				}
+
+				this.channel.truncate(0);
+				this.channel.position(0);
+				this.channel.force(false);
+				this.synced = this.appended;
+			} finally {
+				this.appendLock.unlock();
+			}
+		} finally {
+			fileLock.unlock();
+		}
+	}
+
+	private void compactQuietly() {
+		try {
+			this.compact();
+		} catch (IOException ex) {
+			INIInstrumentation.error(this.iniFile, ex);
+			ex.printStackTrace();
+		} finally {
+			this.compacting.set(false);
+		}
+	}
+
+	/**
+	 * Returns the current size of the journal.
+	 *
+	 * @return The number of bytes in the journal
+	 * @throws IOException If the size could not be read
+	 */
+	public long size() throws IOException {
+		return this.channel.size();
+	}
+
+	/**
+	 * Syncs the journal and closes it. The journal is not compacted, and is
+	 * replayed the next time it is opened.
+	 *
+	 * @throws IOException If the journal could not be synced or closed
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed) return;
+		this.closed = true;
+
+		if (this.syncer != null)
+			this.syncer.shutdownNow();
+		this.compactor.shutdown();
+
+		try {
+			this.compactor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		try {
+			this.sync();
+		} finally {
+			this.channel.close();
+		}
+	}
+
+	/**
+	 * Returns the INI file that the changes are made to.
+	 *
+	 * @return The INI file of this journal
+	 */
+	public File getINIFile() {
+		return this.iniFile;
+	}
+
+	/**
+	 * Returns the file that the changes are appended to.
+	 *
+	 * @return The journal file
+	 */
+	public File getJournalFile() {
+		return this.journalFile;
+	}
+
+	/**
+	 * Appends a record, and syncs it or starts a compaction if needed.
+	 */
+	private void append(byte type, String category, String key, String value) throws IOException {
+		if (this.closed)
+			throw new IOException("The journal of " + this.iniFile + " is closed");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + category.length() + key.length() + value.length());
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(type);
+			out.writeUTF(category);
+			out.writeUTF(key);
+			out.writeUTF(value);
+		}
+
+		long end;
+		long size;
+		this.appendLock.lock();
+		try {
+			end = this.write(bytes.toByteArray());
+			size = this.channel.position();
+		} finally {
+			this.appendLock.unlock();
+		}
+
+		if (this.syncMillis == 0)
+			this.sync(end);
+
+		if (size >= this.compactBytes && this.compacting.compareAndSet(false, true))
+			this.compactor.execute(this::compactQuietly);
+	}
+
+	/**
+	 * Writes a record at the end of the journal. The append lock has to be held.
+	 *
+	 * @return The number of bytes ever appended, including this record
+	 */
+	private long write(byte[] payload) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER + payload.length);
+		buffer.putInt(payload.length);
+		buffer.putInt((int) crc.getValue());
+		buffer.put(payload);
+		buffer.flip();
+
+		while (buffer.hasRemaining())
+			this.channel.write(buffer);
+
+		this.appended += RECORD_HEADER + payload.length;
+		return this.appended;
+	}
+
+	/**
+	 * Reads the records before a position of the journal. If the journal ends
+	 * with a record showing that it was already written into the INI file as it
+	 * is now, no records are returned.
+	 */
+	private List<Record> records(long end) throws IOException {
+		ArrayList<Record> records = new ArrayList<>();
+		this.scan(records, 0, end);
+
+		if (!records.isEmpty() && records.get(records.size() - 1).type == COMPACTED) {
+			if (this.isCompacted(records.remove(records.size() - 1)))
+				records.clear();
+		}
+
+		return records;
+	}
+
+	/**
+	 * Checks if the INI file is the one that a compaction marker was written for.
+	 */
+	private boolean isCompacted(Record marker) throws IOException {
+		if (marker.type != COMPACTED)
+			return false;
+
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(this.iniFile.toPath(), BasicFileAttributes.class);
+			return attributes.size() == marker.size && attributes.lastModifiedTime().toMillis() == marker.modified;
+		} catch (NoSuchFileException ex) {
+			// The compacted INI file was never put in place
+			return false;
+		}
+	}
+
+	private List<Record> records(long from, long to) throws IOException {
+		ArrayList<Record> records = new ArrayList<>();
+		this.scan(records, from, to);
+		return records;
+	}
+
+	/**
+	 * Reads the whole records between two positions of the journal.
+	 *
+	 * @return The position after the last whole record
+	 */
+	private long scan(List<Record> records, long from, long to) throws IOException {
+		long limit = Math.min(this.channel.size(), to);
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+		long pos = from;
+
+		while (pos + RECORD_HEADER <= limit) {
+			header.clear();
+			readFully(this.channel, header, pos);
+			int length = header.getInt(0);
+			int checksum = header.getInt(4);
+
+			if (length < 1 || pos + RECORD_HEADER + length > limit)
+				break;
+
+			ByteBuffer payload = ByteBuffer.allocate(length);
+			readFully(this.channel, payload, pos + RECORD_HEADER);
+
+			CRC32 crc = new CRC32();
+			crc.update(payload.array());
+			if ((int) crc.getValue() != checksum)
+				break;
+
+			if (records != null) {
+				// Markers left by compactions that finished are not needed
+				if (!records.isEmpty() && records.get(records.size() - 1).type == COMPACTED)
+					records.remove(records.size() - 1);
+				records.add(Record.read(payload.array()));
+			}
+
+			pos += RECORD_HEADER + length;
+		}
+
+		return pos;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long pos) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, pos + buffer.position());
+			if (read == -1)
+				throw new EOFException();
+		}
+	}
+
+	/**
+	 * Applies records, in order, to the content of an INI file.
+	 */
+	private String replay(String text, List<Record> records) throws IOException {
+		INIEditSession session = new INIEditSession(this.iniFile);
+
+		for (Record record : records) {
+			// An element that is added after its value was changed in the same
+			// session would get the changed value, so the session is applied first
+			if (record.type == ELEMENT && session.hasChange(record.category, record.key)) {
+				text = apply(session, text);
+				session = new INIEditSession(this.iniFile);
+			}
+
+			switch (record.type) {
+				case CATEGORY:
+					session.addCategory(record.category);
+					break;
+				case ELEMENT:
+					session.addElement(record.category, record.key, record.value);
+					break;
+				case COMMENT:
+					session.addComment(record.category, record.value);
+					break;
+				case VALUE:
+					session.setValue(record.category, record.key, record.value);
+					break;
+				default:
+					break;
+			}
+		}
+
+		return (session.isEmpty() ? text : apply(session, text));
+	}
+
+	private static String apply(INIEditSession session, String text) throws IOException {
+		StringWriter result = new StringWriter(text.length() + 256);
+		try (BufferedReader in = new BufferedReader(new StringReader(text));
+				BufferedWriter out = new BufferedWriter(result)) {
+			session.apply(in, out);
+		}
+
+		return result.toString();
+	}
+
+	private static String readText(File file) throws IOException {
+		try {
+			return new String(Files.readAllBytes(file.toPath()), Charset.defaultCharset());
+		} catch (NoSuchFileException ex) {
+			return "";
+		}
+	}
+
+	/**
+	 * A single change read from the journal.
+	 */
+	private static class Record {
+		byte type;
+		String category, key, value;
+
+		/**
+		 * The size and last modified time of the compacted INI file, for markers
+		 */
+		long size, modified;
+
+		static Record read(byte[] payload) throws IOException {
+			Record record = new Record();
+			try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+				record.type = in.readByte();
+
+				if (record.type == COMPACTED) {
+					record.size = in.readLong();
+					record.modified = in.readLong();
+				} else {
+					record.category = in.readUTF();
+					record.key = in.readUTF();
+					record.value = in.readUTF();
+				}
+			}
+
+			return record;
+		}
+	}
+}
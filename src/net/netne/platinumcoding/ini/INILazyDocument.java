@@ -0,0 +1,326 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class is used for reading a few categories from a large INI file without
+ * parsing the rest of it.
+ * <br /><br />
+ * Opening a lazy document only looks for the category headers, and keeps a
+ * directory of where every category starts and ends in the file. The elements
+ * of a category are parsed the first time the category is asked for, and are
+ * kept for every call after that. Looking up a category near the end of a large
+ * file, or a category that is not in the file at all, never reads the
+ * categories before it.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * INILazyDocument document = INILazyDocument.open(new java.io.File("Huge.ini"));
+ *
+ * // Known from the directory, without parsing any elements
+ * System.out.println(document.getCategoryCount());
+ *
+ * // Only the elements of "Window" are parsed
+ * INIElement width = document.get("Window", "Width");
+ *
+ * // An INIReader can also read from the document
+ * INIReader reader = new INIReader(document);
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * The file is mapped into memory while the document is open, and the document
+ * shows the file as it was when it was opened. The same lines are skipped as by
+ * {@link INIDocument}, and only the first occurrence of a category, and of a key
+ * within it, can be looked up. Lazy documents can be read by many threads at the
+ * same time.
+ *
+ * @author Dealer Next Door
+ */
+public class INILazyDocument {
+	/**
+	 * The INI file that this document was opened from.
+	 */
+	private final File iniFile;
+
+	/**
+	 * Reads the categories out of the mapped file. Different categories can be
+	 * parsed by different threads at the same time.
+	 */
+	private final INIMappedParser parser;
+
+	/**
+	 * The index of every category, by name, in file order
+	 */
+	private final LinkedHashMap<String, Integer> directory;
+
+	/**
+	 * The index of every category, sorted by name, made the first time the
+	 * categories are searched by prefix
+	 */
+	private volatile TreeMap<String, Integer> sorted;
+
+	/**
+	 * The position of the header of every category, and the position after its
+	 * last line
+	 */
+	private final int[] start, end;
+
+	/**
+	 * The categories that have been parsed so far
+	 */
+	private final AtomicReferenceArray<INIDocument.Section> sections;
+
+	/**
+	 * The total number of category headers, including duplicates
+	 */
+	private final int categoryCount;
+
+	private INILazyDocument(File file, INIMappedParser parser) {
+		this.iniFile = file;
+		this.parser = parser;
+		this.directory = new LinkedHashMap<>();
+
+		int[] start = new int[16];
+		int[] end = new int[16];
+		int count = 0;
+		int categories = 0;
+		int current = -1;
+		int limit = parser.size();
+
+		for (int pos = 0; pos < limit; pos = parser.nextLine(pos)) {
+			if (parser.byteAt(pos) != '[')
+				continue;
+
+			// The category before this one ends here
+			if (current != -1)
+				end[current] = pos;
+			current = -1;
+			count++;
+
+			String name = parser.categoryName(pos, parser.lineEnd(pos));
+			if (this.directory.containsKey(name))
+				continue;
+
+			current = categories++;
+			if (current == start.length) {
+				start = Arrays.copyOf(start, current * 2);
+				end = Arrays.copyOf(end, current * 2);
+			}
+
+			this.directory.put(name, current);
+			start[current] = pos;
+		}
+
+		if (current != -1)
+			end[current] = limit;
+
+		this.start = Arrays.copyOf(start, categories);
+		this.end = Arrays.copyOf(end, categories);
+		this.sections = new AtomicReferenceArray<>(categories);
+		this.categoryCount = count;
+	}
+
+	/**
+	 * Opens the specified INI file, in the platform's default character set.
+	 * Only the category headers are read.
+	 *
+	 * @param file The INI file to be opened
+	 * @return The opened document
+	 * @throws IOException If the file could not be mapped
+	 */
+	public static INILazyDocument open(File file) throws IOException {
+		return open(file, Charset.defaultCharset());
+	}
+
+	/**
+	 * Opens the specified INI file. Only the category headers are read.
+	 *
+	 * @param file		The INI file to be opened
+	 * @param charset	The character set that the file is written in
+	 * @return The opened document
+	 * @throws IOException If the file could not be mapped
+	 */
+	public static INILazyDocument open(File file, Charset charset) throws IOException {
+		return new INILazyDocument(file, new INIMappedParser(file, INIMappedParser.map(file), charset));
+	}
+
+	/**
+	 * Returns an array list with all of the elements in a specific category.
+	 * The category is parsed if it has not been asked for before.
+	 *
+	 * @param category The specified category to look under
+	 * @return A new ArrayList of INIElements, or null if the category has no
+	 * elements
+	 */
+	public ArrayList<INIElement> getElements(String category) {
+		INIDocument.Section section = this.section(category);
+		if (section == null || section.elements.isEmpty())
+			return null;
+
+		return new ArrayList<>(section.elements);
+	}
+
+	/**
+	 * Returns the elements of many categories at once. Only the categories that
+	 * are asked for are parsed. Categories that are not in the file, or have no
+	 * elements, are left out.
+	 *
+	 * @param categories The categories to look under
+	 * @return The elements of every category, by category, in the order the
+	 * categories were asked for
+	 */
+	public LinkedHashMap<String, ArrayList<INIElement>> getElements(Collection<String> categories) {
+		LinkedHashMap<String, ArrayList<INIElement>> result = new LinkedHashMap<>();
+
+		for (String category : categories) {
+			ArrayList<INIElement> elements = this.getElements(category);
+			if (elements != null)
+				result.put(category, elements);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the elements of every category whose name starts with a prefix.
+	 * Only the matching categories are parsed, and categories with no elements
+	 * are left out.
+	 *
+	 * @param prefix The start of the category names
+	 * @return The elements of every matching category, by category, sorted by
+	 * name
+	 */
+	public TreeMap<String, ArrayList<INIElement>> getElementsWithPrefix(String prefix) {
+		TreeMap<String, Integer> sorted = this.sorted;
+		if (sorted == null) {
+			sorted = new TreeMap<>(this.directory);
+			this.sorted = sorted;
+		}
+
+		TreeMap<String, ArrayList<INIElement>> result = new TreeMap<>();
+		for (String category : INIDocument.prefixed(sorted, prefix).keySet()) {
+			ArrayList<INIElement> elements = this.getElements(category);
+			if (elements != null)
+				result.put(category, elements);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the elements of a category whose keys start with a prefix. If a
+	 * key is repeated, only its first element is returned.
+	 *
+	 * @param category	The category to look under
+	 * @param prefix	The start of the keys
+	 * @return The matching elements, sorted by key, or null if there are none
+	 */
+	public ArrayList<INIElement> getElementsWithKeyPrefix(String category, String prefix) {
+		INIDocument.Section section = this.section(category);
+		if (section == null)
+			return null;
+
+		ArrayList<INIElement> elements = new ArrayList<>(INIDocument.prefixed(section.sorted(), prefix).values());
+		return (elements.isEmpty() ? null : elements);
+	}
+
+	/**
+	 * Gets a single element from a category. The category is parsed if it has
+	 * not been asked for before.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @return The element, or null if it does not exist
+	 */
+	public INIElement get(String category, String key) {
+		INIDocument.Section section = this.section(category);
+		return (section != null ? section.keys.get(key) : null);
+	}
+
+	/**
+	 * Checks if the file contains the specified category, without parsing it.
+	 *
+	 * @param category The category to look for
+	 * @return True if the category exists
+	 */
+	public boolean hasCategory(String category) {
+		return this.directory.containsKey(category);
+	}
+
+	/**
+	 * Returns the names of every category, in the order they appear in the file.
+	 *
+	 * @return An unmodifiable set of category names
+	 */
+	public Set<String> getCategories() {
+		return Collections.unmodifiableSet(this.directory.keySet());
+	}
+
+	/**
+	 * Returns the total amount of headers within the INI file.
+	 *
+	 * @return The total number of categories within the INI file
+	 */
+	public int getCategoryCount() {
+		return this.categoryCount;
+	}
+
+	/**
+	 * Checks if a category has been parsed yet.
+	 *
+	 * @param category The category to check
+	 * @return True if the category exists and its elements have been parsed
+	 */
+	public boolean isLoaded(String category) {
+		Integer index = this.directory.get(category);
+		return index != null && this.sections.get(index) != null;
+	}
+
+	/**
+	 * Returns the INI file that this document was opened from.
+	 *
+	 * @return The INI file of this document
+	 */
+	public File getINIFile() {
+		return this.iniFile;
+	}
+
+	/**
+	 * Gets a category, parsing it the first time it is asked for.
+	 *
+	 * @return The category, or null if it is not in the file
+	 */
+	private INIDocument.Section section(String category) {
+		Integer index = this.directory.get(category);
+		if (index == null)
+			return null;
+
+		INIDocument.Section section = this.sections.get(index);
+		if (section != null)
+			return section;
+
+		INIDocument.Builder builder = new INIDocument.Builder(this.iniFile);
+		this.parser.parse(this.start[index], this.end[index], builder);
+		section = builder.build().section(category);
+
+		// Threads that parse the same category at once all keep the first one
+		// that was stored, so every caller gets the same elements
+		if (!this.sections.compareAndSet(index, null, section))
+			section = this.sections.get(index);
+
+		return section;
+	}
+}
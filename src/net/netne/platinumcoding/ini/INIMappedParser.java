@@ -0,0 +1,473 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class is used for reading elements from large INI files without reading
+ * them line by line.
+ * <br /><br />
+ * {@link INIReader} creates a String for every line of the file, and another one
+ * for every key and value, even for the lines that it skips. The INIMappedParser
+ * maps the whole file into memory with {@link FileChannel#map} and looks for the
+ * '[', '=', ';', '#' and newline characters directly in the mapped bytes. Strings
+ * are only created for the keys and values of the category that was asked for.
+ * <br /><br />
+ * The file is mapped once, when the parser is created, so the parser can be used
+ * for as many lookups as needed. Any single-byte character set, or UTF-8, can be
+ * used for the file. A parser only reads the mapped bytes, so it is safe to use
+ * from many threads.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * INIMappedParser parser = new INIMappedParser(new java.io.File("Example.ini"));
+ *
+ * for (INIElement element : parser.getElements("Window"))
+ *	System.out.println(element.getKey() + " = " + element.getValue());
+ *
+ * System.out.println("Total categories in file: " + parser.getCategoryCount());
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * Which would output:
+ *
+ * <pre>
+ * {@code
+ * Width = 640
+ * Height = 480
+ * Total categories in file: 2
+ * }
+ * </pre>
+ *
+ * Just like {@link INIDocument}, blank lines, comments and lines without an '='
+ * are skipped instead of being returned as elements.
+ * <br /><br />
+ * Very large files can be parsed by many threads at once with
+ * {@link #parse(ForkJoinPool)}. The file is split into parts that each start at a
+ * category header, every part is parsed by its own task, and the parts are then
+ * joined back together in file order.
+ *
+ * @author Dealer Next Door
+ */
+public class INIMappedParser {
+	/**
+	 * The smallest part of a file that is parsed by its own task
+	 */
+	private static final int MIN_CHUNK_SIZE = 1024 * 1024;
+
+	/**
+	 * The INI file that is being read from.
+	 */
+	private final File iniFile;
+
+	/**
+	 * The content of the INI file
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * The character set that the INI file is written in
+	 */
+	private final Charset charset;
+
+	/**
+	 * Reused for copying bytes out of the buffer before they are decoded. Every
+	 * thread has its own, so that a parser can be used by many threads at once.
+	 */
+	private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+
+	/**
+	 * Creates a parser that reads from the specified file, in the platform's
+	 * default character set.
+	 *
+	 * @param ini The INI file that is being read from.
+	 * @throws IOException If the file could not be mapped
+	 */
+	public INIMappedParser(File ini) throws IOException {
+		this(ini, Charset.defaultCharset());
+	}
+
+	/**
+	 * Creates a parser that reads from the specified file.
+	 *
+	 * @param ini		The INI file that is being read from.
+	 * @param charset	The character set that the file is written in
+	 * @throws IOException If the file could not be mapped
+	 */
+	public INIMappedParser(File ini, Charset charset) throws IOException {
+		this(ini, map(ini), charset);
+	}
+
+	/**
+	 * Creates a parser that reads from bytes that have already been mapped.
+	 *
+	 * @param ini		The INI file that the bytes belong to
+	 * @param buffer	The content of the INI file
+	 * @param charset	The character set that the file is written in
+	 */
+	INIMappedParser(File ini, ByteBuffer buffer, Charset charset) {
+		this.iniFile = ini;
+		this.buffer = buffer;
+		this.charset = charset;
+	}
+
+	/**
+	 * Maps the whole content of a file into memory, read only.
+	 *
+	 * @param file The file to be mapped
+	 * @return The mapped content of the file
+	 * @throws IOException If the file could not be mapped
+	 */
+	static ByteBuffer map(File file) throws IOException {
+		return map(file, 0);
+	}
+
+	/**
+	 * Maps the content of a file into memory, read only, starting at a position.
+	 *
+	 * @param file		The file to be mapped
+	 * @param offset	The position of the first byte to be mapped
+	 * @return The mapped content of the file
+	 * @throws IOException If the file could not be mapped
+	 */
+	static ByteBuffer map(File file, long offset) throws IOException {
+		try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+			long size = Math.max(channel.size() - offset, 0);
+			if (size > Integer.MAX_VALUE)
+				throw new IOException(file + " is too large to be mapped (" + size + " bytes)");
+
+			return channel.map(FileChannel.MapMode.READ_ONLY, Math.min(offset, channel.size()), size);
+		}
+	}
+
+	/**
+	 * Returns the total amount of headers within the INI file.
+	 *
+	 * @return The total number of categories within the INI file
+	 */
+	public int getCategoryCount() {
+		int sections = 0;
+		int limit = this.buffer.limit();
+
+		for (int pos = 0; pos < limit; pos = this.nextLine(pos)) {
+			if (this.buffer.get(pos) == '[')
+				sections++;
+		}
+
+		return sections;
+	}
+
+	/**
+	 * Returns an array list with all of the elements in a specific category.
+	 *
+	 * @param category The specified category to look under
+	 * @return An ArrayList of INIElements, or null if the category has no elements
+	 */
+	public ArrayList<INIElement> getElements(String category) {
+		byte[] name = category.getBytes(this.charset);
+		int start = this.findCategory(name, 0);
+		if (start == -1)
+			return null;
+
+		ArrayList<INIElement> elements = new ArrayList<>();
+		int limit = this.buffer.limit();
+
+		for (int pos = start; pos < limit; pos = this.nextLine(pos)) {
+			byte first = this.buffer.get(pos);
+
+			// A new category has been reached
+			if (first == '[')
+				break;
+
+			int end = this.lineEnd(pos);
+			int split = this.indexOf((byte) '=', pos, end);
+
+			if (split != -1 && first != ';' && first != '#')
+				elements.add(new INIElement(this.iniFile, category,
+						this.decode(pos, split), this.decode(split + 1, end)));
+		}
+
+		return (elements.size() > 0 ? elements : null);
+	}
+
+	/**
+	 * Parses the whole INI file into a document.
+	 *
+	 * @return The parsed INI file
+	 */
+	public INIDocument parse() {
+		INIDocument.Builder builder = new INIDocument.Builder(this.iniFile);
+		this.parse(0, this.buffer.limit(), builder);
+		return builder.build();
+	}
+
+	/**
+	 * Parses the whole INI file into a document, using many threads at once.
+	 * The file is split into parts that each start at a category header, which
+	 * are parsed by the tasks of a pool and then joined back together. Files
+	 * smaller than a few megabytes are parsed by the calling thread.
+	 * <br /><br />
+	 * The document is the same as the one returned by {@link #parse()}: the
+	 * categories are in file order, and a repeated category keeps the elements
+	 * of its first occurrence.
+	 *
+	 * @param pool The pool to run the tasks in
+	 * @return The parsed INI file
+	 */
+	public INIDocument parse(ForkJoinPool pool) {
+		int limit = this.buffer.limit();
+		int chunks = Math.min(pool.getParallelism() * 4, limit / MIN_CHUNK_SIZE);
+		if (chunks < 2)
+			return this.parse();
+
+		// Moving every split forward to the next category header, so that no
+		// category is split between two parts
+		ArrayList<Integer> bounds = new ArrayList<>();
+		bounds.add(0);
+
+		for (int i = 1; i < chunks; i++) {
+			int pos = (int) ((long) limit * i / chunks);
+			if (pos <= bounds.get(bounds.size() - 1))
+				continue;
+
+			if (this.buffer.get(pos - 1) != '\n')
+				pos = this.nextLine(pos);
+			while (pos < limit && this.buffer.get(pos) != '[')
+				pos = this.nextLine(pos);
+
+			if (pos < limit && pos > bounds.get(bounds.size() - 1))
+				bounds.add(pos);
+		}
+		bounds.add(limit);
+
+		List<INIDocument> parts = pool.invoke(new ParseTask(bounds, 0, bounds.size() - 1));
+		return INIDocument.join(this.iniFile, parts);
+	}
+
+	/**
+	 * Parses every line that starts between two positions of the file.
+	 *
+	 * @param from		The position of the first line
+	 * @param to		The position to stop at
+	 * @param builder	Receives the categories and elements that are found
+	 */
+	void parse(int from, int to, INIDocument.Builder builder) {
+		for (int pos = from; pos < to; pos = this.nextLine(pos)) {
+			byte first = this.buffer.get(pos);
+			int end = this.lineEnd(pos);
+
+			// Comments and blank lines
+			if (pos == end || first == ';' || first == '#')
+				continue;
+
+			if (first == '[') {
+				builder.category(this.categoryName(pos, end));
+				continue;
+			}
+
+			int split = this.indexOf((byte) '=', pos, end);
+			if (split != -1)
+				builder.element(this.decode(pos, split), this.decode(split + 1, end));
+		}
+	}
+
+	/**
+	 * Finds the first line after a category header.
+	 *
+	 * @param name	The name of the category, encoded in the file's character set
+	 * @param from	The position to start looking at
+	 * @return The position of the line after the header, or -1 if there is none
+	 */
+	int findCategory(byte[] name, int from) {
+		int limit = this.buffer.limit();
+
+		for (int pos = from; pos < limit; pos = this.nextLine(pos)) {
+			if (this.buffer.get(pos) != '[')
+				continue;
+
+			int end = this.lineEnd(pos);
+			if (end - pos - 2 == name.length && this.matches(pos + 1, name))
+				return this.nextLine(pos);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Gets the name of the category whose header is on a line.
+	 *
+	 * @param pos	The position of the '[' of the header
+	 * @param end	The end of the header line
+	 * @return The name of the category without the braces
+	 */
+	String categoryName(int pos, int end) {
+		return (end - pos > 1 ? this.decode(pos + 1, end - 1) : "");
+	}
+
+	/**
+	 * Checks if the bytes at a position are the same as the specified bytes.
+	 *
+	 * @param pos	The position to compare at
+	 * @param bytes	The bytes to compare with
+	 * @return True if the bytes are the same
+	 */
+	boolean matches(int pos, byte[] bytes) {
+		if (pos + bytes.length > this.buffer.limit())
+			return false;
+
+		for (int i = 0; i < bytes.length; i++) {
+			if (this.buffer.get(pos + i) != bytes[i])
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Finds the first position of a byte between two positions.
+	 *
+	 * @param b		The byte to look for
+	 * @param from	The position to start at
+	 * @param to	The position to stop at
+	 * @return The position of the byte, or -1 if it was not found
+	 */
+	int indexOf(byte b, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (this.buffer.get(i) == b)
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Finds the end of the content of the line that starts at a position, not
+	 * including the line terminator.
+	 *
+	 * @param pos The start of the line
+	 * @return The position after the last character of the line
+	 */
+	int lineEnd(int pos) {
+		int limit = this.buffer.limit();
+		int end = pos;
+
+		while (end < limit && this.buffer.get(end) != '\n')
+			end++;
+
+		if (end > pos && this.buffer.get(end - 1) == '\r')
+			end--;
+
+		return end;
+	}
+
+	/**
+	 * Finds the start of the line after the line that contains a position.
+	 *
+	 * @param pos A position within a line
+	 * @return The start of the next line, or the size of the file if there is none
+	 */
+	int nextLine(int pos) {
+		int limit = this.buffer.limit();
+
+		while (pos < limit && this.buffer.get(pos) != '\n')
+			pos++;
+
+		return (pos < limit ? pos + 1 : limit);
+	}
+
+	/**
+	 * Creates a String from the bytes between two positions.
+	 *
+	 * @param from	The position of the first byte
+	 * @param to	The position after the last byte
+	 * @return The decoded String
+	 */
+	String decode(int from, int to) {
+		int length = to - from;
+		byte[] scratch = SCRATCH.get();
+		if (length > scratch.length) {
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+			SCRATCH.set(scratch);
+		}
+
+		this.buffer.get(from, scratch, 0, length);
+		return new String(scratch, 0, length, this.charset);
+	}
+
+	/**
+	 * Gets the byte at a position of the file.
+	 *
+	 * @param pos The position of the byte
+	 * @return The byte at the position
+	 */
+	byte byteAt(int pos) {
+		return this.buffer.get(pos);
+	}
+
+	/**
+	 * Returns the number of mapped bytes of the INI file.
+	 *
+	 * @return The size of the INI file
+	 */
+	int size() {
+		return this.buffer.limit();
+	}
+
+	/**
+	 * Parses a range of the parts of a file, splitting the range in half until
+	 * each task has a single part.
+	 */
+	private class ParseTask extends RecursiveTask<List<INIDocument>> {
+		private static final long serialVersionUID = 1L;
+
+		private final List<Integer> bounds;
+		private final int from, to;
+
+		ParseTask(List<Integer> bounds, int from, int to) {
+			this.bounds = bounds;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<INIDocument> compute() {
+			if (this.to - this.from == 1) {
+				INIDocument.Builder builder = new INIDocument.Builder(iniFile);
+				INIMappedParser.this.parse(this.bounds.get(this.from), this.bounds.get(this.to), builder);
+
+				ArrayList<INIDocument> parts = new ArrayList<>(1);
+				parts.add(builder.build());
+				return parts;
+			}
+
+			int middle = (this.from + this.to) >>> 1;
+			ParseTask left = new ParseTask(this.bounds, this.from, middle);
+			ParseTask right = new ParseTask(this.bounds, middle, this.to);
+			left.fork();
+
+			List<INIDocument> parts = right.compute();
+			List<INIDocument> all = left.join();
+			all.addAll(parts);
+			return all;
+		}
+	}
+
+	/**
+	 * Returns the INI file that is being read from.
+	 *
+	 * @return The INI file that is being read
+	 */
+	public File getINIFile() {
+		return this.iniFile;
+	}
+}
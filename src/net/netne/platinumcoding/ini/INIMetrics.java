@@ -0,0 +1,293 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A listener that counts the work done by the readers and writers, and keeps
+ * latency histograms of it.
+ * <br /><br />
+ * Lookups by an {@link INIReader} are counted separately depending on how they
+ * were answered: a <i>scan</i> read the INI file itself, and a <i>hit</i> was
+ * answered from a parsed document without touching the file. Comparing the two
+ * shows how much reading is saved by {@link INIReader#load()} or an
+ * {@link INIDocumentCache}.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * INIMetrics metrics = new INIMetrics();
+ * INIInstrumentation.addListener(metrics);
+ *
+ * // ...
+ *
+ * System.out.println(metrics.getScanCount() + " scans took "
+ *	+ metrics.getScanLatency().getMean() + " ns on average");
+ * System.out.println(metrics.getErrorCount() + " errors");
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * Every counter can be updated and read by many threads at the same time.
+ *
+ * @author Dealer Next Door
+ */
+public class INIMetrics implements INIMetricsListener {
+	private final LongAdder parsedBytes = new LongAdder();
+	private final LongAdder parsedLines = new LongAdder();
+	private final LongAdder scannedBytes = new LongAdder();
+	private final LongAdder scannedLines = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+
+	private final Histogram parseLatency = new Histogram();
+	private final Histogram scanLatency = new Histogram();
+	private final Histogram hitLatency = new Histogram();
+	private final Histogram writeLatency = new Histogram();
+
+	@Override
+	public void onParse(File file, long bytes, int lines, long nanos) {
+		this.parsedBytes.add(bytes);
+		this.parsedLines.add(lines);
+		this.parseLatency.record(nanos);
+	}
+
+	@Override
+	public void onScan(File file, long bytes, int lines, long nanos) {
+		this.scannedBytes.add(bytes);
+		this.scannedLines.add(lines);
+		this.scanLatency.record(nanos);
+	}
+
+	@Override
+	public void onHit(File file, long nanos) {
+		this.hitLatency.record(nanos);
+	}
+
+	@Override
+	public void onWrite(File file, String operation, long bytes, long nanos) {
+		this.writeLatency.record(nanos);
+	}
+
+	@Override
+	public void onError(File file, IOException error) {
+		this.errors.increment();
+	}
+
+	/**
+	 * Returns the number of whole files that were parsed into documents.
+	 *
+	 * @return The number of parses
+	 */
+	public long getParseCount() {
+		return this.parseLatency.getCount();
+	}
+
+	/**
+	 * Returns the number of lookups that read the INI file itself.
+	 *
+	 * @return The number of scans
+	 */
+	public long getScanCount() {
+		return this.scanLatency.getCount();
+	}
+
+	/**
+	 * Returns the number of lookups that were answered from a parsed document.
+	 *
+	 * @return The number of hits
+	 */
+	public long getHitCount() {
+		return this.hitLatency.getCount();
+	}
+
+	/**
+	 * Returns the number of changes made to INI files.
+	 *
+	 * @return The number of writes
+	 */
+	public long getWriteCount() {
+		return this.writeLatency.getCount();
+	}
+
+	/**
+	 * Returns the number of errors that were not thrown to the caller.
+	 *
+	 * @return The number of errors
+	 */
+	public long getErrorCount() {
+		return this.errors.sum();
+	}
+
+	/**
+	 * Returns the total size of every file that was parsed.
+	 *
+	 * @return The number of bytes parsed
+	 */
+	public long getParsedBytes() {
+		return this.parsedBytes.sum();
+	}
+
+	/**
+	 * Returns the total number of lines read by every parse.
+	 *
+	 * @return The number of lines parsed
+	 */
+	public long getParsedLines() {
+		return this.parsedLines.sum();
+	}
+
+	/**
+	 * Returns the total number of bytes read by every scan.
+	 *
+	 * @return The number of bytes scanned
+	 */
+	public long getScannedBytes() {
+		return this.scannedBytes.sum();
+	}
+
+	/**
+	 * Returns the total number of lines read by every scan.
+	 *
+	 * @return The number of lines scanned
+	 */
+	public long getScannedLines() {
+		return this.scannedLines.sum();
+	}
+
+	/**
+	 * Returns the latencies of every parse.
+	 *
+	 * @return The parse latency histogram
+	 */
+	public Histogram getParseLatency() {
+		return this.parseLatency;
+	}
+
+	/**
+	 * Returns the latencies of every lookup that read the INI file itself.
+	 *
+	 * @return The scan latency histogram
+	 */
+	public Histogram getScanLatency() {
+		return this.scanLatency;
+	}
+
+	/**
+	 * Returns the latencies of every lookup that was answered from a parsed
+	 * document.
+	 *
+	 * @return The hit latency histogram
+	 */
+	public Histogram getHitLatency() {
+		return this.hitLatency;
+	}
+
+	/**
+	 * Returns the latencies of every change made to an INI file.
+	 *
+	 * @return The write latency histogram
+	 */
+	public Histogram getWriteLatency() {
+		return this.writeLatency;
+	}
+
+	/**
+	 * Sets every counter and histogram back to zero.
+	 */
+	public void reset() {
+		this.parsedBytes.reset();
+		this.parsedLines.reset();
+		this.scannedBytes.reset();
+		this.scannedLines.reset();
+		this.errors.reset();
+		this.parseLatency.reset();
+		this.scanLatency.reset();
+		this.hitLatency.reset();
+		this.writeLatency.reset();
+	}
+
+	/**
+	 * A histogram of latencies in nanoseconds. Every latency is counted in the
+	 * bucket of the next power of two, so percentiles are accurate to within a
+	 * factor of two.
+	 */
+	public static class Histogram {
+		/**
+		 * The number of latencies of up to 2^i nanoseconds, for every i
+		 */
+		private final AtomicLongArray buckets = new AtomicLongArray(63);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder total = new LongAdder();
+
+		void record(long nanos) {
+			nanos = Math.max(nanos, 1);
+			this.buckets.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(nanos - 1), 62));
+			this.count.increment();
+			this.total.add(nanos);
+		}
+
+		void reset() {
+			for (int i = 0; i < this.buckets.length(); i++)
+				this.buckets.set(i, 0);
+			this.count.reset();
+			this.total.reset();
+		}
+
+		/**
+		 * Returns the number of latencies in the histogram.
+		 *
+		 * @return The number of latencies
+		 */
+		public long getCount() {
+			return this.count.sum();
+		}
+
+		/**
+		 * Returns the sum of every latency in the histogram.
+		 *
+		 * @return The total latency, in nanoseconds
+		 */
+		public long getTotal() {
+			return this.total.sum();
+		}
+
+		/**
+		 * Returns the average latency.
+		 *
+		 * @return The mean latency in nanoseconds, or 0 if the histogram is empty
+		 */
+		public double getMean() {
+			long count = this.getCount();
+			return (count == 0 ? 0 : (double) this.getTotal() / count);
+		}
+
+		/**
+		 * Returns the latency that a percentage of the latencies are below, such as
+		 * the 99th percentile.
+		 *
+		 * @param percentile The percentage, from 0 to 100
+		 * @return The upper bound of the percentile in nanoseconds, or 0 if the
+		 * histogram is empty
+		 */
+		public long getPercentile(double percentile) {
+			long total = 0;
+			for (int i = 0; i < this.buckets.length(); i++)
+				total += this.buckets.get(i);
+			if (total == 0)
+				return 0;
+
+			long rank = (long) Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100);
+			long seen = 0;
+			for (int i = 0; i < this.buckets.length(); i++) {
+				seen += this.buckets.get(i);
+				if (seen >= Math.max(rank, 1))
+					return 1L << i;
+			}
+
+			return Long.MAX_VALUE;
+		}
+	}
+}
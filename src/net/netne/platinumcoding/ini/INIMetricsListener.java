@@ -0,0 +1,88 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+
+/**
+ * Is told about the work done by the readers and writers, such as how long a
+ * file took to be scanned, or that a file could not be written.
+ * <br /><br />
+ * Listeners are added with {@link INIInstrumentation#addListener(INIMetricsListener)},
+ * and are called on the thread that did the work, so they should return quickly.
+ * Every method does nothing by default, so only the ones that are needed have to
+ * be implemented. {@link INIMetrics} is a listener that keeps counters and
+ * latency histograms of everything.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * INIInstrumentation.addListener(new INIMetricsListener() {
+ *	public void onError(java.io.File file, IOException error) {
+ *		log.warn("Could not use " + file, error);
+ *	}
+ * });
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * @author Dealer Next Door
+ */
+public interface INIMetricsListener {
+	/**
+	 * Called after a whole INI file was parsed into an {@link INIDocument}.
+	 *
+	 * @param file	The INI file that was parsed
+	 * @param bytes	The size of the file
+	 * @param lines	The number of lines that were read
+	 * @param nanos	How long the parse took, in nanoseconds
+	 */
+	default void onParse(File file, long bytes, int lines, long nanos) {
+	}
+
+	/**
+	 * Called after an {@link INIReader} answered a call by reading the INI file
+	 * itself.
+	 *
+	 * @param file	The INI file that was read
+	 * @param bytes	The number of bytes that were read, counting a byte for every
+	 * character
+	 * @param lines	The number of lines that were read
+	 * @param nanos	How long the call took, in nanoseconds
+	 */
+	default void onScan(File file, long bytes, int lines, long nanos) {
+	}
+
+	/**
+	 * Called after an {@link INIReader} answered a call from a parsed document,
+	 * without reading the INI file.
+	 *
+	 * @param file	The INI file that the document was parsed from
+	 * @param nanos	How long the call took, in nanoseconds
+	 */
+	default void onHit(File file, long nanos) {
+	}
+
+	/**
+	 * Called after an {@link INIFileWriter} or {@link INIElementWriter} changed an
+	 * INI file.
+	 *
+	 * @param file		The INI file that was changed
+	 * @param operation	The name of the method that changed the file, such as
+	 * "addElement"
+	 * @param bytes		The size of the file after the change
+	 * @param nanos		How long the change took, in nanoseconds
+	 */
+	default void onWrite(File file, String operation, long bytes, long nanos) {
+	}
+
+	/**
+	 * Called when an INI file could not be read or written by a reader or writer
+	 * that does not throw the error itself.
+	 *
+	 * @param file	The INI file that could not be used
+	 * @param error	The error
+	 */
+	default void onError(File file, IOException error) {
+	}
+}
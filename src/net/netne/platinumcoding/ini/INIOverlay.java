@@ -0,0 +1,428 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class is used for reading several INI files stacked on top of each
+ * other, such as defaults, a site file and a host file, as if they were one file.
+ * <br /><br />
+ * The files are called layers. When the same element is in more than one layer,
+ * the layer that was given last wins. Instead of looking an element up in every
+ * layer, the overlay works out the winning element of every key once, when it is
+ * loaded, and keeps the result in a single lookup table. A lookup is then a single
+ * hash lookup, no matter how many layers there are.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * INIOverlay overlay = INIOverlay.load(
+ *	new java.io.File("defaults.ini"),
+ *	new java.io.File("site.ini"),
+ *	new java.io.File("host.ini"));	// Wins over the other two
+ *
+ * INIElement width = overlay.get("Window", "Width");
+ * System.out.println("Width = " + width.getValue() + " from " + width.getINIFile());
+ *
+ * // Updating the table when a layer changes
+ * INIWatcher watcher = new INIWatcher();
+ * for (java.io.File layer : overlay.getLayers())
+ *	watcher.watch(layer, overlay);
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * When a layer changes, only the categories with elements that were added,
+ * removed or changed in that layer are worked out again, from the
+ * {@link INIChangeEvent} of the change.
+ * The overlay is an {@link INIChangeListener}, so it can be given to an
+ * {@link INIWatcher} to be kept up to date. Layers that do not exist are treated
+ * as empty files.
+ * <br /><br />
+ * The lookup table is never changed once it has been made. Every update makes a
+ * new table that shares the categories that did not change, and replaces the old
+ * table in a single step, so lookups from other threads never wait and always see
+ * either the old or the new table.
+ *
+ * @author Dealer Next Door
+ */
+public class INIOverlay implements INIChangeListener {
+	/**
+	 * The layers, from the lowest to the highest precedence
+	 */
+	private final File[] layers;
+
+	/**
+	 * The paths of the layers, to find the layer of a change
+	 */
+	private final Path[] paths;
+
+	/**
+	 * The current version of every layer. Only used while holding the lock of
+	 * the overlay.
+	 */
+	private final INIDocument[] documents;
+
+	/**
+	 * The winning element of every key, by category
+	 */
+	private volatile Map<String, Map<String, INIElement>> table = Collections.emptyMap();
+
+	/**
+	 * Creates an overlay of the specified layers. Nothing is read until
+	 * {@link #reload()} is called.
+	 *
+	 * @param layers The INI files, from the lowest to the highest precedence
+	 */
+	public INIOverlay(File... layers) {
+		this.layers = layers.clone();
+		this.paths = new Path[layers.length];
+		this.documents = new INIDocument[layers.length];
+
+		for (int i = 0; i < layers.length; i++)
+			this.paths[i] = layers[i].toPath().toAbsolutePath().normalize();
+	}
+
+	/**
+	 * Loads the specified layers into an overlay.
+	 *
+	 * @param layers The INI files, from the lowest to the highest precedence
+	 * @return The loaded overlay
+	 * @throws IOException If a layer could not be read
+	 */
+	public static INIOverlay load(File... layers) throws IOException {
+		INIOverlay overlay = new INIOverlay(layers);
+		overlay.reload();
+		return overlay;
+	}
+
+	/**
+	 * Reads every layer again and makes a new lookup table from all of them.
+	 *
+	 * @throws IOException If a layer could not be read. The table is not changed.
+	 */
+	public synchronized void reload() throws IOException {
+		INIDocument[] documents = new INIDocument[this.layers.length];
+		for (int i = 0; i < this.layers.length; i++)
+			documents[i] = read(this.layers[i]);
+
+		HashMap<String, Map<String, INIElement>> table = new HashMap<>();
+		for (INIDocument document : documents) {
+			for (INIDocument.Section section : document.sections()) {
+				Map<String, INIElement> keys = table.computeIfAbsent(section.name, c -> new LinkedHashMap<>());
+				for (INIElement element : section.elements) {
+					// Repeated keys are not used
+					if (section.keys.get(element.getKey()) == element)
+						keys.put(element.getKey(), element);
+				}
+			}
+		}
+
+		for (Map.Entry<String, Map<String, INIElement>> entry : table.entrySet())
+			entry.setValue(Collections.unmodifiableMap(entry.getValue()));
+
+		System.arraycopy(documents, 0, this.documents, 0, documents.length);
+		this.table = Collections.unmodifiableMap(table);
+	}
+
+	/**
+	 * Reads a single layer again, and updates the lookup table with only the
+	 * elements of that layer that have changed.
+	 *
+	 * @param layer The layer that has changed
+	 * @throws IOException If the layer could not be read. The table is not changed.
+	 */
+	public void reload(File layer) throws IOException {
+		int index = this.indexOf(layer);
+		if (index == -1)
+			throw new IllegalArgumentException(layer + " is not a layer of this overlay");
+
+		// Read under the lock, so that a slower read of an older version of the
+		// layer can never replace a newer one
+		synchronized (this) {
+			INIDocument document = read(layer);
+			this.update(index, this.documents[index] != null
+					? INIChangeEvent.between(layer, this.documents[index], document) : null, document);
+		}
+	}
+
+	/**
+	 * Updates the lookup table after a layer has changed. Changes to files that
+	 * are not layers of this overlay are ignored.
+	 *
+	 * @param event The elements of the layer that were added, removed and changed
+	 */
+	@Override
+	public void changed(INIChangeEvent event) {
+		int index = this.indexOf(event.getINIFile());
+		if (index == -1)
+			return;
+
+		if (event.getNewDocument() == null) {
+			try {
+				this.reload(event.getINIFile());
+			} catch (IOException ex) {
+				INIInstrumentation.error(event.getINIFile(), ex);
+				ex.printStackTrace();
+			}
+			return;
+		}
+
+		synchronized (this) {
+			INIDocument old = this.documents[index];
+
+			// The event may have been made against a version of the layer that
+			// this overlay does not have
+			if (old != null && event.getOldDocument() != old)
+				event = INIChangeEvent.between(event.getINIFile(), old, event.getNewDocument());
+
+			this.update(index, old != null ? event : null, event.getNewDocument());
+		}
+	}
+
+	/**
+	 * Works out the categories that changed in a layer again, and replaces the
+	 * table with one that has their new winners. Must hold the lock of the overlay.
+	 *
+	 * @param index		The layer that has changed
+	 * @param event		The changes to the layer, or null if the overlay was never
+	 * loaded
+	 * @param document	The new version of the layer
+	 */
+	private void update(int index, INIChangeEvent event, INIDocument document) {
+		INIDocument old = this.documents[index];
+		this.documents[index] = document;
+
+		if (event == null) {
+			try {
+				this.reload();
+			} catch (IOException ex) {
+				INIInstrumentation.error(this.layers[index], ex);
+				ex.printStackTrace();
+			}
+			return;
+		}
+
+		// The categories with elements that changed, and the categories that were
+		// added or removed without any elements
+		HashSet<String> categories = new HashSet<>();
+		for (INIElement element : event.getAdded())
+			categories.add(element.getCategory());
+		for (INIElement element : event.getChanged())
+			categories.add(element.getCategory());
+		for (INIElement element : event.getRemoved())
+			categories.add(element.getCategory());
+
+		for (INIDocument.Section section : document.sections()) {
+			if (old.section(section.name) == null)
+				categories.add(section.name);
+		}
+		for (INIDocument.Section section : old.sections()) {
+			if (document.section(section.name) == null)
+				categories.add(section.name);
+		}
+
+		if (categories.isEmpty())
+			return;
+
+		HashMap<String, Map<String, INIElement>> table = new HashMap<>(this.table);
+		for (String category : categories) {
+			Map<String, INIElement> keys = this.merge(category);
+			if (keys != null)
+				table.put(category, keys);
+			else
+				table.remove(category);
+		}
+
+		this.table = Collections.unmodifiableMap(table);
+	}
+
+	/**
+	 * Works out the winning element of every key in a category, from the lowest
+	 * layer up.
+	 *
+	 * @return The winners, in the order their keys first appear, or null if no
+	 * layer has the category
+	 */
+	private Map<String, INIElement> merge(String category) {
+		LinkedHashMap<String, INIElement> keys = null;
+
+		for (INIDocument document : this.documents) {
+			INIDocument.Section section = document.section(category);
+			if (section == null)
+				continue;
+
+			if (keys == null)
+				keys = new LinkedHashMap<>();
+			for (INIElement element : section.elements) {
+				if (section.keys.get(element.getKey()) == element)
+					keys.put(element.getKey(), element);
+			}
+		}
+
+		return (keys != null ? Collections.unmodifiableMap(keys) : null);
+	}
+
+	private int indexOf(File file) {
+		Path path = file.toPath().toAbsolutePath().normalize();
+		for (int i = 0; i < this.paths.length; i++) {
+			if (this.paths[i].equals(path))
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Parses a layer, or makes an empty document if it does not exist.
+	 */
+	private static INIDocument read(File layer) throws IOException {
+		try {
+			return INIDocument.load(layer);
+		} catch (FileNotFoundException | NoSuchFileException ex) {
+			return new INIDocument(layer, new LinkedHashMap<>(), 0, 0, 0);
+		}
+	}
+
+	/**
+	 * Gets the winning element of a key.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @return The element from the highest layer that has it, or null if no layer
+	 * has it. Its INI file is the layer it came from.
+	 */
+	public INIElement get(String category, String key) {
+		Map<String, INIElement> keys = this.table.get(category);
+		return (keys != null ? keys.get(key) : null);
+	}
+
+	/**
+	 * Gets the value of the winning element of a key as a String.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @param def		The value to return if no layer has the element
+	 * @return The value of the element, or the default value
+	 */
+	public String getString(String category, String key, String def) {
+		INIElement element = this.get(category, key);
+		return (element != null ? element.getString(def) : def);
+	}
+
+	/**
+	 * Gets the value of the winning element of a key as an int. See
+	 * {@link INIElement#getInt(int)}.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @param def		The value to return if no layer has the element or it is
+	 * not an int
+	 * @return The value of the element, or the default value
+	 */
+	public int getInt(String category, String key, int def) {
+		INIElement element = this.get(category, key);
+		return (element != null ? element.getInt(def) : def);
+	}
+
+	/**
+	 * Gets the value of the winning element of a key as a long. See
+	 * {@link INIElement#getLong(long)}.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @param def		The value to return if no layer has the element or it is
+	 * not a long
+	 * @return The value of the element, or the default value
+	 */
+	public long getLong(String category, String key, long def) {
+		INIElement element = this.get(category, key);
+		return (element != null ? element.getLong(def) : def);
+	}
+
+	/**
+	 * Gets the value of the winning element of a key as a double. See
+	 * {@link INIElement#getDouble(double)}.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @param def		The value to return if no layer has the element or it is
+	 * not a number
+	 * @return The value of the element, or the default value
+	 */
+	public double getDouble(String category, String key, double def) {
+		INIElement element = this.get(category, key);
+		return (element != null ? element.getDouble(def) : def);
+	}
+
+	/**
+	 * Gets the value of the winning element of a key as a boolean. See
+	 * {@link INIElement#getBoolean(boolean)}.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @param def		The value to return if no layer has the element or it is
+	 * not a boolean
+	 * @return The value of the element, or the default value
+	 */
+	public boolean getBoolean(String category, String key, boolean def) {
+		INIElement element = this.get(category, key);
+		return (element != null ? element.getBoolean(def) : def);
+	}
+
+	/**
+	 * Returns the winning element of every key in a category, from all of the
+	 * layers.
+	 *
+	 * @param category The specified category to look under
+	 * @return A new ArrayList of INIElements, or null if the category has no
+	 * elements in any layer
+	 */
+	public ArrayList<INIElement> getElements(String category) {
+		Map<String, INIElement> keys = this.table.get(category);
+		if (keys == null || keys.isEmpty())
+			return null;
+
+		return new ArrayList<>(keys.values());
+	}
+
+	/**
+	 * Checks if any layer contains the specified category.
+	 *
+	 * @param category The category to look for
+	 * @return True if the category exists
+	 */
+	public boolean hasCategory(String category) {
+		return this.table.containsKey(category);
+	}
+
+	/**
+	 * Returns the names of the categories of every layer.
+	 *
+	 * @return An unmodifiable set of category names
+	 */
+	public Set<String> getCategories() {
+		return this.table.keySet();
+	}
+
+	/**
+	 * Returns the layers of this overlay.
+	 *
+	 * @return The INI files, from the lowest to the highest precedence
+	 */
+	public List<File> getLayers() {
+		return Collections.unmodifiableList(Arrays.asList(this.layers));
+	}
+}
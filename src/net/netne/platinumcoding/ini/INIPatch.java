@@ -0,0 +1,422 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This class is used for sending only the differences between two versions of
+ * an INI file, instead of the whole file.
+ * <br /><br />
+ * A patch is a list of operations that turn one version of a file into another:
+ * categories that were added or removed, and elements that were added, removed
+ * or changed. {@link #diff(INIDocument, INIDocument)} compares two parsed files
+ * and makes the smallest patch between them, looking every category and key up
+ * once in the other file, so it takes time in proportion to the number of
+ * elements. {@link #apply(File)} makes every change of a patch in a single pass
+ * over a file, through an {@link INIEditSession}, so blank lines and comments are
+ * kept.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * // On the primary
+ * INIPatch patch = INIPatch.diff(new java.io.File("Last sent.ini"), new java.io.File("Config.ini"));
+ * patch.writeTo(socket.getOutputStream());
+ *
+ * // On the replica
+ * INIPatch received = INIPatch.readFrom(socket.getInputStream());
+ * received.apply(new java.io.File("Config.ini"));
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * Patches are {@link Serializable}, and can also be written in a small binary
+ * form with {@link #writeTo(OutputStream)}. Just like {@link INIChangeEvent},
+ * only the first occurrence of a category, and of a key within it, is compared.
+ * New categories are added to the end of the file, and new elements after the
+ * last element of their category. Removing a category also removes the comments
+ * directly above it.
+ *
+ * @author Dealer Next Door
+ */
+public class INIPatch implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The first bytes of a patch in the binary form
+	 */
+	private static final int MAGIC = 0x494E4950;
+
+	/**
+	 * The version of the binary form
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The kinds of changes that a patch can make.
+	 */
+	public enum Type {
+		/**
+		 * Adds an empty category to the end of the file
+		 */
+		ADD_CATEGORY,
+
+		/**
+		 * Removes a category and all of its elements
+		 */
+		REMOVE_CATEGORY,
+
+		/**
+		 * Adds an element after the last element of its category
+		 */
+		ADD_ELEMENT,
+
+		/**
+		 * Removes an element
+		 */
+		REMOVE_ELEMENT,
+
+		/**
+		 * Changes the value of an element
+		 */
+		CHANGE_ELEMENT;
+
+		/**
+		 * Checks if the change is to a single element.
+		 *
+		 * @return True if the change has a key
+		 */
+		public boolean hasKey() {
+			return this != ADD_CATEGORY && this != REMOVE_CATEGORY;
+		}
+
+		/**
+		 * Checks if the change gives an element a value.
+		 *
+		 * @return True if the change has a value
+		 */
+		public boolean hasValue() {
+			return this == ADD_ELEMENT || this == CHANGE_ELEMENT;
+		}
+	}
+
+	/**
+	 * The changes, in the order they are made
+	 */
+	private final ArrayList<Operation> operations;
+
+	/**
+	 * Creates a patch from a list of operations.
+	 *
+	 * @param operations The changes, in the order they are made
+	 */
+	public INIPatch(List<Operation> operations) {
+		this.operations = new ArrayList<>(operations);
+	}
+
+	/**
+	 * Compares two INI files.
+	 *
+	 * @param from	The old version of the file
+	 * @param to	The new version of the file
+	 * @return The patch that turns the old version into the new one
+	 * @throws IOException If a file could not be read
+	 */
+	public static INIPatch diff(File from, File to) throws IOException {
+		return diff(INIDocument.load(from), INIDocument.load(to));
+	}
+
+	/**
+	 * Compares two parsed INI files.
+	 *
+	 * @param from	The old version of the file
+	 * @param to	The new version of the file
+	 * @return The patch that turns the old version into the new one
+	 */
+	public static INIPatch diff(INIDocument from, INIDocument to) {
+		ArrayList<Operation> operations = new ArrayList<>();
+
+		for (INIDocument.Section section : from.sections()) {
+			INIDocument.Section current = to.section(section.name);
+
+			if (current == null) {
+				// The elements go with the category
+				operations.add(new Operation(Type.REMOVE_CATEGORY, section.name, null, null));
+				continue;
+			}
+
+			for (INIElement before : section.elements) {
+				// Repeated keys are not compared
+				if (section.keys.get(before.getKey()) != before)
+					continue;
+
+				if (!current.keys.containsKey(before.getKey()))
+					operations.add(new Operation(Type.REMOVE_ELEMENT, section.name, before.getKey(), null));
+			}
+		}
+
+		for (INIDocument.Section section : to.sections()) {
+			INIDocument.Section old = from.section(section.name);
+
+			if (old == null)
+				operations.add(new Operation(Type.ADD_CATEGORY, section.name, null, null));
+
+			for (INIElement after : section.elements) {
+				if (section.keys.get(after.getKey()) != after)
+					continue;
+
+				String value = String.valueOf(after.getValue());
+				INIElement before = (old != null ? old.keys.get(after.getKey()) : null);
+
+				if (before == null)
+					operations.add(new Operation(Type.ADD_ELEMENT, section.name, after.getKey(), value));
+				else if (!value.equals(String.valueOf(before.getValue())))
+					operations.add(new Operation(Type.CHANGE_ELEMENT, section.name, after.getKey(), value));
+			}
+		}
+
+		return new INIPatch(operations);
+	}
+
+	/**
+	 * Makes every change of the patch to an INI file, in a single pass over the
+	 * file. The file is replaced in one step.
+	 *
+	 * @param file The file to be changed
+	 * @throws IOException If the file could not be read or replaced
+	 */
+	public void apply(File file) throws IOException {
+		INIEditSession session = new INIEditSession(file);
+		this.addTo(session);
+		session.commit();
+	}
+
+	/**
+	 * Adds every change of the patch to an edit session, to be made with the
+	 * other changes of the session when it is committed.
+	 *
+	 * @param session The session to add the changes to
+	 */
+	public void addTo(INIEditSession session) {
+		for (Operation operation : this.operations) {
+			switch (operation.type) {
+				case ADD_CATEGORY:
+					session.addCategory(operation.category);
+					break;
+				case REMOVE_CATEGORY:
+					session.removeCategory(operation.category);
+					break;
+				case ADD_ELEMENT:
+					session.addElement(operation.category, operation.key, operation.value);
+					break;
+				case REMOVE_ELEMENT:
+					session.removeElement(operation.category, operation.key);
+					break;
+				case CHANGE_ELEMENT:
+					session.setValue(operation.category, operation.key, operation.value);
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Writes the patch in its binary form.
+	 *
+	 * @param out The stream to write the patch to. It is not closed.
+	 * @throws IOException If the patch could not be written
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeByte(VERSION);
+		data.writeInt(this.operations.size());
+
+		for (Operation operation : this.operations) {
+			data.writeByte(operation.type.ordinal());
+			data.writeUTF(operation.category);
+
+			if (operation.key != null)
+				data.writeUTF(operation.key);
+			if (operation.value != null)
+				data.writeUTF(operation.value);
+		}
+
+		data.flush();
+	}
+
+	/**
+	 * Reads a patch that was written with {@link #writeTo(OutputStream)}.
+	 *
+	 * @param in The stream to read the patch from. It is not closed.
+	 * @return The patch
+	 * @throws IOException If the patch could not be read, or is not a patch
+	 */
+	public static INIPatch readFrom(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC)
+			throw new IOException("Not an INI patch");
+
+		int version = data.readUnsignedByte();
+		if (version != VERSION)
+			throw new IOException("Unsupported INI patch version: " + version);
+
+		int count = data.readInt();
+		Type[] types = Type.values();
+		ArrayList<Operation> operations = new ArrayList<>(Math.min(count, 1024));
+
+		for (int i = 0; i < count; i++) {
+			int ordinal = data.readUnsignedByte();
+			if (ordinal >= types.length)
+				throw new IOException("Unknown INI patch operation: " + ordinal);
+
+			Type type = types[ordinal];
+			String category = data.readUTF();
+			String key = (type.hasKey() ? data.readUTF() : null);
+			String value = (type.hasValue() ? data.readUTF() : null);
+			operations.add(new Operation(type, category, key, value));
+		}
+
+		return new INIPatch(operations);
+	}
+
+	/**
+	 * Returns the changes of the patch.
+	 *
+	 * @return An unmodifiable list of the changes, in the order they are made
+	 */
+	public List<Operation> getOperations() {
+		return Collections.unmodifiableList(this.operations);
+	}
+
+	/**
+	 * Checks if the patch makes no changes.
+	 *
+	 * @return True if both versions of the file were the same
+	 */
+	public boolean isEmpty() {
+		return this.operations.isEmpty();
+	}
+
+	/**
+	 * Returns the number of changes in the patch.
+	 *
+	 * @return The number of operations
+	 */
+	public int size() {
+		return this.operations.size();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (Operation operation : this.operations)
+			builder.append(operation).append(System.lineSeparator());
+
+		return builder.toString();
+	}
+
+	/**
+	 * A single change of a patch.
+	 */
+	public static final class Operation implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final Type type;
+		private final String category, key, value;
+
+		/**
+		 * Creates a change.
+		 *
+		 * @param type		The kind of change
+		 * @param category	The category that is changed
+		 * @param key		The key of the element, or null for a change to the
+		 * category
+		 * @param value		The new value of the element, or null if the change
+		 * does not have one
+		 */
+		public Operation(Type type, String category, String key, String value) {
+			this.type = Objects.requireNonNull(type);
+			this.category = Objects.requireNonNull(category);
+
+			if (type.hasKey() != (key != null))
+				throw new IllegalArgumentException(type + (type.hasKey() ? " needs a key" : " does not have a key"));
+			if (type.hasValue() != (value != null))
+				throw new IllegalArgumentException(type + (type.hasValue() ? " needs a value" : " does not have a value"));
+
+			this.key = key;
+			this.value = value;
+		}
+
+		/**
+		 * Returns the kind of change.
+		 *
+		 * @return The type of the change
+		 */
+		public Type getType() {
+			return this.type;
+		}
+
+		/**
+		 * Returns the category that is changed.
+		 *
+		 * @return The name of the category
+		 */
+		public String getCategory() {
+			return this.category;
+		}
+
+		/**
+		 * Returns the key of the element that is changed.
+		 *
+		 * @return The key, or null for a change to the category
+		 */
+		public String getKey() {
+			return this.key;
+		}
+
+		/**
+		 * Returns the new value of the element.
+		 *
+		 * @return The value, or null if the change does not have one
+		 */
+		public String getValue() {
+			return this.value;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Operation))
+				return false;
+
+			Operation other = (Operation) obj;
+			return this.type == other.type && this.category.equals(other.category)
+					&& Objects.equals(this.key, other.key) && Objects.equals(this.value, other.value);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.type, this.category, this.key, this.value);
+		}
+
+		@Override
+		public String toString() {
+			switch (this.type) {
+				case ADD_CATEGORY:
+					return "+[" + this.category + ']';
+				case REMOVE_CATEGORY:
+					return "-[" + this.category + ']';
+				case ADD_ELEMENT:
+					return "+[" + this.category + "] " + this.key + '=' + this.value;
+				case REMOVE_ELEMENT:
+					return "-[" + this.category + "] " + this.key;
+				default:
+					return "~[" + this.category + "] " + this.key + '=' + this.value;
+			}
+		}
+	}
+}
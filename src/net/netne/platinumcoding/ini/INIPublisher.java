@@ -0,0 +1,324 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is used for feeding the elements of an INI file into a reactive
+ * pipeline, one element at a time.
+ * <br /><br />
+ * A publisher does not read the file until a subscriber asks for elements, and
+ * then only reads as far as it needs to, with an {@link INIStreamParser}. The
+ * first element is sent as soon as it is read, without waiting for the rest of
+ * the file, and no list of every element is ever made. Every subscriber reads
+ * the file on its own, from the start.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * INIPublisher publisher = new INIPublisher(new java.io.File("Example.ini"), "Window");
+ *
+ * publisher.subscribe(new java.util.concurrent.Flow.Subscriber<INIElement>() {
+ *	private java.util.concurrent.Flow.Subscription subscription;
+ *
+ *	public void onSubscribe(java.util.concurrent.Flow.Subscription subscription) {
+ *		this.subscription = subscription;
+ *		subscription.request(1);
+ *	}
+ *
+ *	public void onNext(INIElement element) {
+ *		System.out.println(element.getKey() + " = " + element.getValue());
+ *		this.subscription.request(1);	// Reads the next element
+ *	}
+ *
+ *	public void onError(Throwable error) {
+ *		error.printStackTrace();
+ *	}
+ *
+ *	public void onComplete() {
+ *	}
+ * });
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * Cancelling a subscription closes the file right away, and a publisher of a
+ * single category closes the file as soon as the category ends. The elements are
+ * sent by an executor, the common pool unless another one is given, and never by
+ * more than one thread at a time for the same subscriber. The same elements are
+ * sent as {@link INIDocument} would hold: only the first occurrence of a category
+ * is read, and blank lines, comments and lines without an '=' are skipped.
+ *
+ * @author Dealer Next Door
+ */
+public class INIPublisher implements Flow.Publisher<INIElement> {
+	/**
+	 * The INI file that the elements are read from.
+	 */
+	private final File iniFile;
+
+	/**
+	 * The only category to read, or null to read every category
+	 */
+	private final String category;
+
+	/**
+	 * Sends the elements to the subscribers
+	 */
+	private final Executor executor;
+
+	/**
+	 * Creates a publisher of every element in the specified file.
+	 *
+	 * @param ini The INI file that the elements are read from
+	 */
+	public INIPublisher(File ini) {
+		this(ini, null, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a publisher of the elements of a single category.
+	 *
+	 * @param ini		The INI file that the elements are read from
+	 * @param category	The category to read, or null to read every category
+	 */
+	public INIPublisher(File ini, String category) {
+		this(ini, category, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a publisher of the elements of a single category, which sends the
+	 * elements with the specified executor.
+	 *
+	 * @param ini		The INI file that the elements are read from
+	 * @param category	The category to read, or null to read every category
+	 * @param executor	Sends the elements to the subscribers
+	 */
+	public INIPublisher(File ini, String category, Executor executor) {
+		this.iniFile = Objects.requireNonNull(ini);
+		this.category = category;
+		this.executor = Objects.requireNonNull(executor);
+	}
+
+	/**
+	 * Adds a subscriber. The file is opened the first time the subscriber asks
+	 * for elements.
+	 *
+	 * @param subscriber The subscriber to send the elements to
+	 */
+	@Override
+	public void subscribe(Flow.Subscriber<? super INIElement> subscriber) {
+		Objects.requireNonNull(subscriber);
+		subscriber.onSubscribe(new Subscription(subscriber));
+	}
+
+	/**
+	 * Returns the INI file that the elements are read from.
+	 *
+	 * @return The INI file of this publisher
+	 */
+	public File getINIFile() {
+		return this.iniFile;
+	}
+
+	/**
+	 * Returns the only category that is read.
+	 *
+	 * @return The category, or null if every category is read
+	 */
+	public String getCategory() {
+		return this.category;
+	}
+
+	/**
+	 * Reads the file for a single subscriber, only as fast as it asks for
+	 * elements.
+	 */
+	private class Subscription implements Flow.Subscription, INIHandler {
+		private final Flow.Subscriber<? super INIElement> subscriber;
+
+		/**
+		 * The number of elements that were asked for and not sent yet
+		 */
+		private final AtomicLong requested = new AtomicLong();
+
+		/**
+		 * The number of times the subscription was signalled while sending, so
+		 * that only one thread sends at a time
+		 */
+		private final AtomicInteger wip = new AtomicInteger();
+
+		private volatile boolean cancelled;
+
+		/**
+		 * The error to send if an amount of elements that was not positive was
+		 * asked for
+		 */
+		private volatile IllegalArgumentException invalid;
+
+		/**
+		 * Only used by the thread that is sending
+		 */
+		private INIStreamParser parser;
+		private boolean done;
+		private String current;
+		private boolean inCategory;
+		private INIElement element;
+		private final HashSet<String> seen = new HashSet<>();
+
+		Subscription(Flow.Subscriber<? super INIElement> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				this.invalid = new IllegalArgumentException("The amount of elements asked for must be positive: " + n);
+			} else {
+				this.requested.getAndUpdate(r -> (r + n < 0 ? Long.MAX_VALUE : r + n));
+			}
+
+			this.signal();
+		}
+
+		@Override
+		public void cancel() {
+			this.cancelled = true;
+			this.signal();
+		}
+
+		private void signal() {
+			if (this.wip.getAndIncrement() == 0)
+				INIPublisher.this.executor.execute(this::run);
+		}
+
+		/**
+		 * Sends as many elements as were asked for. Returning without lowering
+		 * the signal count leaves the subscription finished for good.
+		 */
+		private void run() {
+			int missed = 1;
+
+			for (;;) {
+				if (this.cancelled) {
+					this.finish();
+					return;
+				}
+
+				if (this.invalid != null) {
+					this.finish();
+					this.subscriber.onError(this.invalid);
+					return;
+				}
+
+				long requested = this.requested.get();
+				long sent = 0;
+
+				while (sent != requested) {
+					INIElement next;
+					try {
+						next = this.read();
+					} catch (IOException ex) {
+						INIInstrumentation.error(INIPublisher.this.iniFile, ex);
+						this.finish();
+						this.subscriber.onError(ex);
+						return;
+					}
+
+					if (next == null) {
+						this.finish();
+						this.subscriber.onComplete();
+						return;
+					}
+
+					try {
+						this.subscriber.onNext(next);
+					} catch (RuntimeException ex) {
+						this.cancelled = true;
+						this.finish();
+						throw ex;
+					}
+					sent++;
+
+					if (this.cancelled || this.invalid != null)
+						break;
+				}
+
+				if (sent != 0 && requested != Long.MAX_VALUE)
+					this.requested.addAndGet(-sent);
+
+				missed = this.wip.addAndGet(-missed);
+				if (missed == 0)
+					return;
+			}
+		}
+
+		/**
+		 * Reads lines until the next element is found.
+		 *
+		 * @return The next element, or null if there are no more
+		 */
+		private INIElement read() throws IOException {
+			if (this.parser == null)
+				this.parser = new INIStreamParser(INIPublisher.this.iniFile);
+
+			while (this.element == null && !this.done) {
+				if (!this.parser.next(this))
+					break;
+			}
+
+			INIElement next = this.element;
+			this.element = null;
+			return next;
+		}
+
+		/**
+		 * Closes the file and stops sending elements.
+		 */
+		private void finish() {
+			this.done = true;
+
+			if (this.parser != null) {
+				try {
+					this.parser.close();
+				} catch (IOException ex) {
+					INIInstrumentation.error(INIPublisher.this.iniFile, ex);
+					ex.printStackTrace();
+				}
+				this.parser = null;
+			}
+		}
+
+		@Override
+		public void onSection(CharSequence name) {
+			String category = INIPublisher.this.category;
+			this.current = null;
+
+			if (category == null) {
+				String thisCategory = name.toString();
+				if (this.seen.add(thisCategory))
+					this.current = thisCategory;
+			} else if (this.inCategory) {
+				// The category has ended, so the rest of the file is not needed
+				this.done = true;
+			} else if (name.length() == category.length() && name.toString().equals(category)) {
+				this.inCategory = true;
+				this.current = category;
+			}
+		}
+
+		@Override
+		public void onEntry(CharSequence key, CharSequence value) {
+			if (this.current != null && !this.done)
+				this.element = new INIElement(INIPublisher.this.iniFile, this.current, key.toString(), value.toString());
+		}
+	}
+}
@@ -2,6 +2,12 @@ package net.netne.platinumcoding.ini;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+import java.util.function.Predicate;
 
 /**
  * This class is used for reading elements from an INI file.
@@ -77,6 +83,29 @@ import java.util.ArrayList;
  * }
  * </pre>
  * 
+ * Both of these methods read through the whole file every time they are called.
+ * If you are going to read from the same file many times, call {@link #load()}
+ * once, or create the reader from an {@link INIDocument}, and every call after
+ * that is answered from memory. Readers that only live for a short time can share
+ * their parsed files through an {@link INIDocumentCache} instead. If only a few
+ * categories of a large file are read, {@link #loadLazy()} reads just the category
+ * headers, and parses each category the first time it is read.
+ * <br /><br />
+ * To read many categories, use {@link #getElements(Collection)} or
+ * {@link #getElementsWithPrefix(String)}, which read all of them in a single pass
+ * over the file instead of one pass for every category.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * INIReader reader = new INIReader(new java.io.File("Example.ini"));
+ * reader.load();
+ * 
+ * // No longer reads from the file
+ * reader.getElements("Window");
+ * reader.getElements("Properties");
+ * }
+ * </pre>
+ * 
  * @author Dealer Next Door
  */
 public class INIReader {
@@ -85,6 +114,22 @@ public class INIReader {
 	 */
 	private File iniFile;
 	
+	/**
+	 * The parsed INI file, if the reader is reading from memory instead.
+	 */
+	private INIDocument document;
+	
+	/**
+	 * The INI file with only its category headers read, if the reader is
+	 * reading from it instead.
+	 */
+	private INILazyDocument lazyDocument;
+	
+	/**
+	 * The cache that parsed INI files are shared through, if there is one.
+	 */
+	private INIDocumentCache cache;
+	
 	/**
 	 * Creates an INIReader that reads from the specified file
 	 * 
@@ -94,6 +139,120 @@ public class INIReader {
 		this.iniFile = ini;
 	}
 	
+	/**
+	 * Creates an INIReader that reads from an INI file that has already been
+	 * parsed, without opening the file again.
+	 * 
+	 * @param doc The parsed INI file that is being read from.
+	 */
+	public INIReader(INIDocument doc) {
+		this.iniFile = doc.getINIFile();
+		this.document = doc;
+	}
+	
+	/**
+	 * Creates an INIReader that reads from an INI file that has been opened
+	 * lazily, parsing each category the first time it is read.
+	 * 
+	 * @param doc The lazily opened INI file that is being read from.
+	 */
+	public INIReader(INILazyDocument doc) {
+		this.iniFile = doc.getINIFile();
+		this.lazyDocument = doc;
+	}
+	
+	/**
+	 * Creates an INIReader that reads from the specified file through a cache
+	 * of parsed INI files. Any number of readers can share the same cache, and
+	 * the file is only parsed again when it has changed.
+	 * 
+	 * @param ini	The INI file that is being read from.
+	 * @param cache	The cache that parsed INI files are shared through
+	 */
+	public INIReader(File ini, INIDocumentCache cache) {
+		this.iniFile = ini;
+		this.cache = cache;
+	}
+	
+	/**
+	 * Parses the whole INI file once and keeps it in memory. Every call after
+	 * this one is answered from the parsed document instead of the file.
+	 * 
+	 * @return The parsed INI file, or null if it could not be read
+	 */
+	public INIDocument load() {
+		if (this.iniFile == null) return null;
+		
+		try {
+			this.document = INIDocument.load(this.iniFile);
+		} catch (IOException ex) {
+			INIInstrumentation.error(this.iniFile, ex);
+			ex.printStackTrace();
+		}
+		
+		return this.document;
+	}
+	
+	/**
+	 * Reads only the category headers of the INI file, and keeps where every
+	 * category is in the file. Every call after this one parses only the
+	 * category that it asks for, the first time it is asked for.
+	 * 
+	 * @return The lazily opened INI file, or null if it could not be read
+	 */
+	public INILazyDocument loadLazy() {
+		if (this.iniFile == null) return null;
+		
+		try {
+			this.lazyDocument = INILazyDocument.open(this.iniFile);
+		} catch (IOException ex) {
+			INIInstrumentation.error(this.iniFile, ex);
+			ex.printStackTrace();
+		}
+		
+		return this.lazyDocument;
+	}
+	
+	/**
+	 * Returns the parsed INI file that the reader is reading from, if it has
+	 * one.
+	 * 
+	 * @return The parsed INI file, or null if the reader reads from the file
+	 */
+	public INIDocument getDocument() {
+		if (this.cache != null && this.iniFile != null) {
+			try {
+				return this.cache.get(this.iniFile);
+			} catch (IOException ex) {
+				INIInstrumentation.error(this.iniFile, ex);
+				ex.printStackTrace();
+			}
+		}
+		
+		return this.document;
+	}
+	
+	/**
+	 * Returns the parsed INI file to answer a lookup from, if the reader has
+	 * one. A cache that cannot read the file is not reported here, since the
+	 * lookup then reads the file itself and reports the error if it still
+	 * cannot be read.
+	 * 
+	 * @param event The event of the lookup
+	 * @return The parsed INI file, or null if the lookup has to read the file
+	 */
+	private INIDocument getDocument(INIInstrumentation.LookupEvent event) {
+		if (this.cache != null && this.iniFile != null) {
+			try {
+				return this.cache.get(this.iniFile, event);
+			} catch (IOException ex) {
+				// Reported by the lookup when it reads the file
+			}
+		}
+		
+		return this.document;
+	}
+	
 	/**
 	 * Returns the total amount of headers within the INI file.
 	 * EX:
@@ -113,13 +272,30 @@ public class INIReader {
 	 *	@return	The total number of sections within the INI file
 	 */
 	public int getCategoryCount() {
+		INIInstrumentation.LookupEvent event = INIInstrumentation.lookup(this.iniFile, null);
+		INIDocument document = this.getDocument(event);
+		if (document != null) {
+			int count = document.getCategoryCount();
+			event.hit();
+			return count;
+		}
+		if (this.lazyDocument != null) {
+			int count = this.lazyDocument.getCategoryCount();
+			event.hit();
+			return count;
+		}
 		if (this.iniFile == null) return 0;
 		int sections = 0;
+		long bytes = 0;
+		int lines = 0;
 		
 		try(BufferedReader reader = new BufferedReader(new FileReader(this.iniFile))) {
 			String string;
 			
 			while ( (string = reader.readLine()) != null) {
+				bytes += string.length() + 1;
+				lines++;
+				
 				// Ignoring comments and blank lines
 				if (string.equals("") || string.charAt(0) == ';' || string.charAt(0) == '#')
 					continue;
@@ -132,9 +308,11 @@ public class INIReader {
 			
 			reader.close();
 		} catch (IOException ex) {
+			INIInstrumentation.error(this.iniFile, ex);
 			ex.printStackTrace();
 		}
 		
+		event.scanned(bytes, lines);
 		return sections;
 	}
 	
@@ -145,14 +323,32 @@ public class INIReader {
 	 * @return An ArrayList of INIElements
 	 */
 	public ArrayList<INIElement> getElements(String category) {
+		INIInstrumentation.LookupEvent event = INIInstrumentation.lookup(this.iniFile, category);
+		INIDocument document = this.getDocument(event);
+		if (document != null) {
+			ArrayList<INIElement> elements = document.getElements(category);
+			event.hit();
+			return elements;
+		}
+		if (this.lazyDocument != null) {
+			ArrayList<INIElement> elements = this.lazyDocument.getElements(category);
+			event.hit();
+			return elements;
+		}
+		
 		// All of the elements within a category will be here
 		ArrayList<INIElement> elements = new ArrayList<>();
+		long bytes = 0;
+		int lines = 0;
 		
 		try (BufferedReader reader = new BufferedReader(new FileReader(this.iniFile))) {
 			boolean hasFoundCategory = false;
 			String string;
 			
 			while ((string = reader.readLine()) != null) {
+				bytes += string.length() + 1;
+				lines++;
+				
 				if (!hasFoundCategory) {
 					// Things to happen if the reader has yet to find the category
 					// of the element
@@ -198,12 +394,176 @@ public class INIReader {
 					
 			}
 		} catch(IOException e) {
+			INIInstrumentation.error(this.iniFile, e);
 			e.printStackTrace();
 		}
 		
+		event.scanned(bytes, lines);
 		return (elements.size() > 0 ? elements : null);
 	}
 	
+	/**
+	 * Returns the elements of many categories with a single pass over the file.
+	 * The file is only read until the last of the categories has been read.
+	 * Categories that are not in the file, or have no elements, are left out.
+	 * 
+	 * @param categories The categories to look under
+	 * @return The elements of every category, by category, in the order the
+	 * categories were asked for
+	 */
+	public LinkedHashMap<String, ArrayList<INIElement>> getElements(Collection<String> categories) {
+		INIInstrumentation.LookupEvent event = INIInstrumentation.lookupAll(this.iniFile, categories);
+		INIDocument document = this.getDocument(event);
+		if (document != null) {
+			LinkedHashMap<String, ArrayList<INIElement>> result = document.getElements(categories);
+			event.hit();
+			return result;
+		}
+		if (this.lazyDocument != null) {
+			LinkedHashMap<String, ArrayList<INIElement>> result = this.lazyDocument.getElements(categories);
+			event.hit();
+			return result;
+		}
+		
+		HashSet<String> wanted = new HashSet<>(categories);
+		HashMap<String, ArrayList<INIElement>> found = this.scan(wanted::contains, wanted.size(), event);
+		
+		LinkedHashMap<String, ArrayList<INIElement>> result = new LinkedHashMap<>();
+		for (String category : categories) {
+			ArrayList<INIElement> elements = found.get(category);
+			if (elements != null && !elements.isEmpty())
+				result.put(category, elements);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the elements of every category whose name starts with a prefix,
+	 * such as every category starting with "tenant.", with a single pass over
+	 * the file. Categories with no elements are left out.
+	 * 
+	 * @param prefix The start of the category names
+	 * @return The elements of every matching category, by category, sorted by
+	 * name
+	 */
+	public TreeMap<String, ArrayList<INIElement>> getElementsWithPrefix(String prefix) {
+		INIInstrumentation.LookupEvent event = INIInstrumentation.lookupPrefix(this.iniFile, prefix);
+		INIDocument document = this.getDocument(event);
+		if (document != null) {
+			TreeMap<String, ArrayList<INIElement>> result = document.getElementsWithPrefix(prefix);
+			event.hit();
+			return result;
+		}
+		if (this.lazyDocument != null) {
+			TreeMap<String, ArrayList<INIElement>> result = this.lazyDocument.getElementsWithPrefix(prefix);
+			event.hit();
+			return result;
+		}
+		
+		TreeMap<String, ArrayList<INIElement>> result = new TreeMap<>();
+		for (ArrayList<INIElement> elements : this.scan(c -> c.startsWith(prefix), Integer.MAX_VALUE, event).values()) {
+			if (!elements.isEmpty())
+				result.put(elements.get(0).getCategory(), elements);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the elements of a category whose keys start with a prefix. If a
+	 * key is repeated, only its first element is returned.
+	 * 
+	 * @param category	The category to look under
+	 * @param prefix	The start of the keys
+	 * @return The matching elements, sorted by key, or null if there are none
+	 */
+	public ArrayList<INIElement> getElementsWithKeyPrefix(String category, String prefix) {
+		INIInstrumentation.LookupEvent event = INIInstrumentation.lookup(this.iniFile, category);
+		INIDocument document = this.getDocument(event);
+		if (document != null) {
+			ArrayList<INIElement> elements = document.getElementsWithKeyPrefix(category, prefix);
+			event.hit();
+			return elements;
+		}
+		if (this.lazyDocument != null) {
+			ArrayList<INIElement> elements = this.lazyDocument.getElementsWithKeyPrefix(category, prefix);
+			event.hit();
+			return elements;
+		}
+		
+		ArrayList<INIElement> found = this.scan(category::equals, 1, event).get(category);
+		if (found == null)
+			return null;
+		
+		TreeMap<String, INIElement> keys = new TreeMap<>();
+		for (INIElement element : found) {
+			if (element.getKey().startsWith(prefix))
+				keys.putIfAbsent(element.getKey(), element);
+		}
+		
+		return (keys.isEmpty() ? null : new ArrayList<>(keys.values()));
+	}
+	
+	/**
+	 * Reads the elements of the wanted categories in a single pass over the file.
+	 * Only the first occurrence of a category is read, and blank lines, comments
+	 * and lines without an '=' are skipped, the same as {@link INIDocument}.
+	 * 
+	 * @param wanted	Checks if a category should be read
+	 * @param count		The number of categories that can be wanted, so that the
+	 * rest of the file is not read once all of them have been read
+	 * @param event		The lookup to report the scan to
+	 * @return The elements of every wanted category that was found
+	 */
+	private HashMap<String, ArrayList<INIElement>> scan(Predicate<String> wanted, int count, 
+			INIInstrumentation.LookupEvent event) {
+		HashMap<String, ArrayList<INIElement>> found = new HashMap<>();
+		HashSet<String> seen = new HashSet<>();
+		long bytes = 0;
+		int lines = 0;
+		
+		try (BufferedReader reader = new BufferedReader(new FileReader(this.iniFile))) {
+			ArrayList<INIElement> current = null;
+			String category = null;
+			String string;
+			
+			while ((string = reader.readLine()) != null) {
+				bytes += string.length() + 1;
+				lines++;
+				
+				// Ignoring comments and blank lines
+				if (string.equals("") || string.charAt(0) == ';' || string.charAt(0) == '#')
+					continue;
+				
+				if (string.charAt(0) == '[') {
+					// Every wanted category has been read
+					if (found.size() == count)
+						break;
+					
+					category = string.length() > 1 ? string.substring(1, string.length() - 1) : "";
+					current = null;
+					
+					if (seen.add(category) && wanted.test(category)) {
+						current = new ArrayList<>();
+						found.put(category, current);
+					}
+					continue;
+				}
+				
+				int pos = string.indexOf('=');
+				if (current != null && pos != -1)
+					current.add(new INIElement(this.iniFile, category, string.substring(0, pos), string.substring(pos + 1)));
+			}
+		} catch (IOException e) {
+			INIInstrumentation.error(this.iniFile, e);
+			e.printStackTrace();
+		}
+		
+		event.scanned(bytes, lines);
+		return found;
+	}
+	
 	/**
 	 * Returns the INI file that is being read from.
 	 * 
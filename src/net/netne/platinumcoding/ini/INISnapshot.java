@@ -0,0 +1,520 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * This class is used to read an INI file that rarely changes without parsing it
+ * every time the program starts.
+ * <br /><br />
+ * An INI file is compiled once into a snapshot file, which holds:
+ * <ul>
+ * <li>a string table with every different name, key and value of the file</li>
+ * <li>a directory of the categories, with the range of elements under each one</li>
+ * <li>hash tables of the categories and of the elements, by category and key</li>
+ * </ul>
+ * Opening a snapshot only maps the file into memory and checks its header.
+ * Nothing is parsed and no objects are created for the elements until a value
+ * is looked up, and then only the value that was asked for is decoded.
+ * <br /><br />
+ * The snapshot remembers the size and the last modified time of the INI file
+ * it was compiled from. {@link #load(File, File)} only uses a snapshot if the
+ * INI file has not changed since, and otherwise parses the INI file again and
+ * writes a new snapshot. The same happens if the snapshot file is truncated or
+ * its header is damaged.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * // Parses Example.ini the first time, and maps Example.ini.snapshot afterwards
+ * INISnapshot snapshot = INISnapshot.load(new java.io.File("Example.ini"),
+ *	new java.io.File("Example.ini.snapshot"));
+ *
+ * String width = snapshot.getValue("Window", "Width");
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * The same lines are skipped as by {@link INIDocument}, and only the first
+ * occurrence of a category, and of a key within it, can be looked up. Snapshots
+ * can be read by many threads at the same time.
+ *
+ * @author Dealer Next Door
+ */
+public class INISnapshot {
+	/**
+	 * The first bytes of every snapshot file, "INIS"
+	 */
+	private static final int MAGIC = 0x494E4953;
+
+	/**
+	 * The version of the snapshot format, changed whenever the layout changes
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The size of the header at the start of the snapshot file. The header holds,
+	 * in order: the magic number, the version, the size and last modified time
+	 * of the INI file, the number of category headers, sections, elements and
+	 * strings, the sizes of the two hash tables and the string of the INI file's
+	 * path.
+	 */
+	private static final int HEADER_SIZE = 52;
+
+	/**
+	 * The snapshot file that this snapshot was opened from
+	 */
+	private final File snapshotFile;
+
+	/**
+	 * The INI file that this snapshot was compiled from.
+	 */
+	private final File iniFile;
+
+	/**
+	 * The mapped content of the snapshot file
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * The size and last modified time of the INI file when it was compiled
+	 */
+	private final long sourceSize, sourceModified;
+
+	private final int categoryCount, sectionCount, elementCount, stringCount;
+	private final int sectionTableSize, entryTableSize;
+
+	/**
+	 * The positions of each part of the snapshot file
+	 */
+	private final int strings, sections, entries, sectionTable, entryTable, data;
+
+	private INISnapshot(File file, ByteBuffer buffer) throws IOException {
+		this.snapshotFile = file;
+		this.buffer = buffer;
+
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException(file + " is not an INI snapshot");
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException(file + " has an unsupported snapshot version (" + buffer.getInt(4) + ")");
+
+		this.sourceSize = buffer.getLong(8);
+		this.sourceModified = buffer.getLong(16);
+		this.categoryCount = buffer.getInt(24);
+		this.sectionCount = buffer.getInt(28);
+		this.elementCount = buffer.getInt(32);
+		this.stringCount = buffer.getInt(36);
+		this.sectionTableSize = buffer.getInt(40);
+		this.entryTableSize = buffer.getInt(44);
+
+		if (this.categoryCount < 0 || this.sectionCount < 0 || this.elementCount < 0 || this.stringCount <= 0
+				|| Integer.bitCount(this.sectionTableSize) != 1 || Integer.bitCount(this.entryTableSize) != 1)
+			throw new IOException(file + " has a damaged header");
+
+		// Worked out as longs, so that damaged counts cannot overflow into
+		// positions that look valid
+		long directory = (this.stringCount + 1L) * 4 + this.sectionCount * 12L + this.elementCount * 8L
+				+ (this.sectionTableSize + (long) this.entryTableSize) * 4;
+		if (HEADER_SIZE + directory > buffer.limit())
+			throw new IOException(file + " is truncated");
+
+		this.strings = HEADER_SIZE;
+		this.sections = this.strings + (this.stringCount + 1) * 4;
+		this.entries = this.sections + this.sectionCount * 12;
+		this.sectionTable = this.entries + this.elementCount * 8;
+		this.entryTable = this.sectionTable + this.sectionTableSize * 4;
+		this.data = this.entryTable + this.entryTableSize * 4;
+
+		int dataSize = this.stringEnd(this.stringCount - 1);
+		if (dataSize < 0 || (long) this.data + dataSize > buffer.limit())
+			throw new IOException(file + " is truncated");
+
+		int path = buffer.getInt(48);
+		if (path < 0 || path >= this.stringCount)
+			throw new IOException(file + " has a damaged header");
+
+		this.iniFile = new File(this.string(path));
+	}
+
+	/**
+	 * Gets a snapshot of an INI file. If the snapshot file was compiled from the
+	 * INI file as it is now, it is opened, and otherwise the INI file is parsed
+	 * and compiled into the snapshot file again.
+	 *
+	 * @param ini		The INI file to be read
+	 * @param snapshot	The snapshot file of the INI file, which does not have to
+	 * exist yet
+	 * @return A snapshot of the INI file as it is now
+	 * @throws IOException If the INI file could not be read, or the snapshot file
+	 * could not be written
+	 */
+	public static INISnapshot load(File ini, File snapshot) throws IOException {
+		if (snapshot.exists()) {
+			try {
+				INISnapshot current = open(snapshot);
+				if (current.isCurrent(ini))
+					return current;
+			} catch (IOException | RuntimeException ex) {
+				// A damaged snapshot or an older version, which is replaced below
+			}
+		}
+
+		compile(ini, snapshot);
+		return open(snapshot);
+	}
+
+	/**
+	 * Opens a snapshot file, without checking if its INI file has changed.
+	 *
+	 * @param snapshot The snapshot file to be opened
+	 * @return The opened snapshot
+	 * @throws IOException If the file could not be mapped, or is not a snapshot
+	 */
+	public static INISnapshot open(File snapshot) throws IOException {
+		return new INISnapshot(snapshot, INIMappedParser.map(snapshot));
+	}
+
+	/**
+	 * Parses an INI file and compiles it into a snapshot file.
+	 *
+	 * @param ini		The INI file to be compiled
+	 * @param snapshot	The snapshot file to be written
+	 * @throws IOException If the INI file could not be read, or the snapshot file
+	 * could not be written
+	 */
+	public static void compile(File ini, File snapshot) throws IOException {
+		// Taken before parsing, so that changes made during the parse make the
+		// snapshot out of date instead of being missed
+		long size = ini.length();
+		long modified = ini.lastModified();
+
+		write(INIDocument.load(ini), size, modified, snapshot);
+	}
+
+	/**
+	 * Compiles a document that has already been parsed into a snapshot file. The
+	 * snapshot is marked as compiled from the document's INI file as it is now,
+	 * so the document should be up to date with it.
+	 *
+	 * @param document	The document to be compiled
+	 * @param snapshot	The snapshot file to be written
+	 * @throws IOException If the snapshot file could not be written
+	 */
+	public static void compile(INIDocument document, File snapshot) throws IOException {
+		File ini = document.getINIFile();
+		write(document, ini.length(), ini.lastModified(), snapshot);
+	}
+
+	private static void write(INIDocument document, long size, long modified, File snapshot) throws IOException {
+		HashMap<String, Integer> ids = new HashMap<>();
+		ArrayList<byte[]> strings = new ArrayList<>();
+		int pathId = intern(document.getINIFile().getPath(), ids, strings);
+
+		int sectionCount = 0;
+		int elementCount = document.getElementCount();
+		int[] sections = new int[document.sections().size() * 3];
+		int[] entries = new int[elementCount * 2];
+		int e = 0;
+
+		int sectionTableSize = INIHashTables.tableSize(sections.length / 3);
+		int entryTableSize = INIHashTables.tableSize(elementCount);
+		int[] sectionTable = new int[sectionTableSize];
+		int[] entryTable = new int[entryTableSize];
+
+		for (INIDocument.Section section : document.sections()) {
+			int s = sectionCount++;
+			sections[s * 3] = intern(section.name, ids, strings);
+			sections[s * 3 + 1] = e;
+			INIHashTables.insert(sectionTable, INIHashTables.hash(section.name), s);
+
+			for (INIElement element : section.elements) {
+				entries[e * 2] = intern(element.getKey(), ids, strings);
+				entries[e * 2 + 1] = intern(String.valueOf(element.getValue()), ids, strings);
+
+				// Only the first element with a key can be looked up
+				if (section.keys.get(element.getKey()) == element)
+					INIHashTables.insert(entryTable, INIHashTables.hash(s, element.getKey()), e);
+				e++;
+			}
+
+			sections[s * 3 + 2] = e;
+		}
+
+		File temp = INIFiles.createTempFile(snapshot);
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(size);
+				out.writeLong(modified);
+				out.writeInt(document.getCategoryCount());
+				out.writeInt(sectionCount);
+				out.writeInt(e);
+				out.writeInt(strings.size());
+				out.writeInt(sectionTableSize);
+				out.writeInt(entryTableSize);
+				out.writeInt(pathId);
+
+				int offset = 0;
+				out.writeInt(offset);
+				for (byte[] string : strings) {
+					offset += string.length;
+					out.writeInt(offset);
+				}
+
+				writeInts(sections, out);
+				writeInts(entries, out);
+				writeInts(sectionTable, out);
+				writeInts(entryTable, out);
+
+				for (byte[] string : strings)
+					out.write(string);
+			}
+
+			INIFiles.replace(temp, snapshot);
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Gets a single element from a category. A new INIElement is created every
+	 * time this is called.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @return The element, or null if it does not exist
+	 */
+	public INIElement get(String category, String key) {
+		int section = this.findSection(category);
+		int entry = (section != -1 ? this.findEntry(section, key) : -1);
+
+		return (entry != -1 ? this.element(category, entry) : null);
+	}
+
+	/**
+	 * Gets the value of a single element from a category.
+	 *
+	 * @param category	The category that the element is under
+	 * @param key		The key of the element
+	 * @return The value of the element, or null if it does not exist
+	 */
+	public String getValue(String category, String key) {
+		int section = this.findSection(category);
+		int entry = (section != -1 ? this.findEntry(section, key) : -1);
+
+		return (entry != -1 ? this.string(this.buffer.getInt(this.entries + entry * 8 + 4)) : null);
+	}
+
+	/**
+	 * Returns an array list with all of the elements in a specific category.
+	 * New INIElements are created every time this is called.
+	 *
+	 * @param category The specified category to look under
+	 * @return An ArrayList of INIElements, or null if the category has no elements
+	 */
+	public ArrayList<INIElement> getElements(String category) {
+		int section = this.findSection(category);
+		if (section == -1)
+			return null;
+
+		int first = this.buffer.getInt(this.sections + section * 12 + 4);
+		int end = this.buffer.getInt(this.sections + section * 12 + 8);
+		if (first == end)
+			return null;
+
+		ArrayList<INIElement> elements = new ArrayList<>(end - first);
+		for (int e = first; e < end; e++)
+			elements.add(this.element(category, e));
+
+		return elements;
+	}
+
+	/**
+	 * Checks if the snapshot contains the specified category.
+	 *
+	 * @param category The category to look for
+	 * @return True if the category exists
+	 */
+	public boolean hasCategory(String category) {
+		return this.findSection(category) != -1;
+	}
+
+	/**
+	 * Returns the names of every category, in the order they appear in the file.
+	 * The names are decoded every time this is called.
+	 *
+	 * @return An unmodifiable set of category names
+	 */
+	public Set<String> getCategories() {
+		LinkedHashSet<String> names = new LinkedHashSet<>();
+		for (int s = 0; s < this.sectionCount; s++)
+			names.add(this.string(this.buffer.getInt(this.sections + s * 12)));
+
+		return Collections.unmodifiableSet(names);
+	}
+
+	/**
+	 * Returns the total amount of headers within the INI file.
+	 *
+	 * @return The total number of categories within the INI file
+	 */
+	public int getCategoryCount() {
+		return this.categoryCount;
+	}
+
+	/**
+	 * Returns the total amount of elements held by this snapshot.
+	 *
+	 * @return The total number of elements
+	 */
+	public int getElementCount() {
+		return this.elementCount;
+	}
+
+	/**
+	 * Checks if the INI file has changed since this snapshot was compiled.
+	 *
+	 * @return True if the INI file has the same size and last modified time as
+	 * when the snapshot was compiled
+	 */
+	public boolean isCurrent() {
+		return this.isCurrent(this.iniFile);
+	}
+
+	private boolean isCurrent(File ini) {
+		return ini.exists() && ini.length() == this.sourceSize && ini.lastModified() == this.sourceModified;
+	}
+
+	/**
+	 * Returns the INI file that this snapshot was compiled from.
+	 *
+	 * @return The INI file of this snapshot
+	 */
+	public File getINIFile() {
+		return this.iniFile;
+	}
+
+	/**
+	 * Returns the snapshot file that this snapshot was opened from.
+	 *
+	 * @return The snapshot file
+	 */
+	public File getSnapshotFile() {
+		return this.snapshotFile;
+	}
+
+	/**
+	 * Finds the first section with a name.
+	 *
+	 * @return The index of the section, or -1 if it does not exist
+	 */
+	private int findSection(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int mask = this.sectionTableSize - 1;
+
+		// A table is never full, but a damaged one could be, so the search stops
+		// after every slot has been looked at
+		int slot = INIHashTables.hash(name) & mask;
+		for (int probes = 0; probes <= mask; probes++, slot = (slot + 1) & mask) {
+			int section = this.buffer.getInt(this.sectionTable + slot * 4) - 1;
+			if (section == -1)
+				return -1;
+
+			if (this.matches(this.buffer.getInt(this.sections + section * 12), bytes))
+				return section;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Finds the first element with a key in a section.
+	 *
+	 * @return The index of the element, or -1 if it does not exist
+	 */
+	private int findEntry(int section, String key) {
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		int first = this.buffer.getInt(this.sections + section * 12 + 4);
+		int end = this.buffer.getInt(this.sections + section * 12 + 8);
+		int mask = this.entryTableSize - 1;
+
+		int slot = INIHashTables.hash(section, key) & mask;
+		for (int probes = 0; probes <= mask; probes++, slot = (slot + 1) & mask) {
+			int entry = this.buffer.getInt(this.entryTable + slot * 4) - 1;
+			if (entry == -1)
+				return -1;
+
+			if (entry >= first && entry < end && this.matches(this.buffer.getInt(this.entries + entry * 8), bytes))
+				return entry;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Checks if a string of the string table is the same as some UTF-8 bytes.
+	 */
+	private boolean matches(int id, byte[] bytes) {
+		int start = this.stringEnd(id - 1);
+		if (this.stringEnd(id) - start != bytes.length)
+			return false;
+
+		for (int i = 0; i < bytes.length; i++) {
+			if (this.buffer.get(this.data + start + i) != bytes[i])
+				return false;
+		}
+
+		return true;
+	}
+
+	private INIElement element(String category, int entry) {
+		return new INIElement(this.iniFile, category,
+				this.string(this.buffer.getInt(this.entries + entry * 8)),
+				this.string(this.buffer.getInt(this.entries + entry * 8 + 4)));
+	}
+
+	/**
+	 * Decodes a string of the string table.
+	 */
+	private String string(int id) {
+		int start = this.stringEnd(id - 1);
+		byte[] bytes = new byte[this.stringEnd(id) - start];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = this.buffer.get(this.data + start + i);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the position in the string data after the end of a string, or 0
+	 * for the string before the first one.
+	 */
+	private int stringEnd(int id) {
+		return this.buffer.getInt(this.strings + (id + 1) * 4);
+	}
+
+	private static int intern(String string, HashMap<String, Integer> ids, ArrayList<byte[]> strings) {
+		Integer id = ids.get(string);
+		if (id == null) {
+			id = strings.size();
+			ids.put(string, id);
+			strings.add(string.getBytes(StandardCharsets.UTF_8));
+		}
+
+		return id;
+	}
+
+	private static void writeInts(int[] values, DataOutputStream out) throws IOException {
+		for (int value : values)
+			out.writeInt(value);
+	}
+}
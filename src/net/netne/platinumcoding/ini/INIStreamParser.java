@@ -0,0 +1,303 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class is used for reading INI files of any size, one line at a time,
+ * without keeping them in memory.
+ * <br /><br />
+ * Instead of building a list of elements, the parser tells an {@link INIHandler}
+ * about every line as soon as it is read. The file is read in blocks into a
+ * single buffer that is reused for the whole file, and the names, keys and
+ * values are given to the handler as views of that buffer instead of new Strings.
+ * The memory used only depends on the length of the longest line, not on the
+ * size of the file.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * // Counting the elements whose value is "true", without creating any Strings
+ * int[] count = new int[1];
+ *
+ * INIStreamParser.parse(new java.io.File("Example.ini"), new INIHandler() {
+ *	public void onEntry(CharSequence key, CharSequence value) {
+ *		if (value.length() == 4 && value.toString().equals("true"))
+ *			count[0]++;
+ *	}
+ * });
+ *
+ * System.out.println(count[0] + " elements are true");
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * Lines are sorted out the same way as by {@link INIDocument}, except that lines
+ * without an '=' are given to {@link INIHandler#onComment(CharSequence)}.
+ *
+ * @author Dealer Next Door
+ */
+public class INIStreamParser implements Closeable {
+	/**
+	 * The size of the blocks that the file is read in
+	 */
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	/**
+	 * The INI file that is being read from.
+	 */
+	private final File iniFile;
+
+	/**
+	 * The open INI file
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Turns the bytes of the file into characters
+	 */
+	private final CharsetDecoder decoder;
+
+	/**
+	 * The block of bytes that was last read from the file
+	 */
+	private final ByteBuffer bytes = ByteBuffer.allocate(BLOCK_SIZE);
+
+	/**
+	 * The characters that have been read, and the part of them that has not
+	 * been given to the handler yet
+	 */
+	private char[] chars = new char[BLOCK_SIZE];
+	private int start, end;
+
+	/**
+	 * If the whole file has been read
+	 */
+	private boolean endOfFile;
+
+	/**
+	 * The views that are given to the handler
+	 */
+	private final View first = new View(), second = new View();
+
+	/**
+	 * Opens the specified file for parsing, in the platform's default character
+	 * set.
+	 *
+	 * @param ini The INI file that is being read from.
+	 * @throws IOException If the file could not be opened
+	 */
+	public INIStreamParser(File ini) throws IOException {
+		this(ini, Charset.defaultCharset());
+	}
+
+	/**
+	 * Opens the specified file for parsing.
+	 *
+	 * @param ini		The INI file that is being read from.
+	 * @param charset	The character set that the file is written in
+	 * @throws IOException If the file could not be opened
+	 */
+	public INIStreamParser(File ini, Charset charset) throws IOException {
+		this.iniFile = ini;
+		this.channel = FileChannel.open(ini.toPath(), StandardOpenOption.READ);
+		this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Parses a whole INI file, then closes it.
+	 *
+	 * @param file		The INI file to be parsed
+	 * @param handler	Told about every line of the file
+	 * @throws IOException If the file could not be read
+	 */
+	public static void parse(File file, INIHandler handler) throws IOException {
+		try (INIStreamParser parser = new INIStreamParser(file)) {
+			parser.parse(handler);
+		}
+	}
+
+	/**
+	 * Parses the rest of the INI file.
+	 *
+	 * @param handler Told about every line of the file
+	 * @throws IOException If the file could not be read
+	 */
+	public void parse(INIHandler handler) throws IOException {
+		while (this.next(handler)) {
+			// Every line is given to the handler by next()
+		}
+	}
+
+	/**
+	 * Parses the next line of the INI file.
+	 *
+	 * @param handler Told about the line
+	 * @return False if there are no more lines
+	 * @throws IOException If the file could not be read
+	 */
+	public boolean next(INIHandler handler) throws IOException {
+		int scan = this.start;
+		int newline;
+
+		while ((newline = indexOf('\n', this.chars, scan, this.end)) == -1) {
+			if (this.endOfFile) {
+				// The last line, which has no line terminator
+				if (this.start == this.end)
+					return false;
+
+				newline = this.end;
+				break;
+			}
+
+			scan = this.end - this.start;
+			this.fill();
+			scan = this.start + scan;
+		}
+
+		int lineEnd = newline;
+		if (lineEnd > this.start && this.chars[lineEnd - 1] == '\r')
+			lineEnd--;
+
+		int lineStart = this.start;
+		this.start = Math.min(newline + 1, this.end);
+		this.dispatch(handler, lineStart, lineEnd);
+		return true;
+	}
+
+	/**
+	 * Tells a handler about a single line.
+	 */
+	private void dispatch(INIHandler handler, int from, int to) {
+		char[] chars = this.chars;
+
+		if (from == to) {
+			handler.onBlank();
+			return;
+		}
+
+		char c = chars[from];
+		if (c == ';' || c == '#') {
+			handler.onComment(this.first.set(chars, from, to - from));
+		} else if (c == '[') {
+			int length = Math.max(to - from - 2, 0);
+			handler.onSection(this.first.set(chars, from + 1, length));
+		} else {
+			int split = indexOf('=', chars, from, to);
+			if (split == -1) {
+				handler.onComment(this.first.set(chars, from, to - from));
+			} else {
+				handler.onEntry(this.first.set(chars, from, split - from),
+						this.second.set(chars, split + 1, to - split - 1));
+			}
+		}
+	}
+
+	/**
+	 * Reads the next block of the file, after moving the characters that have
+	 * not been used yet to the start of the buffer.
+	 */
+	private void fill() throws IOException {
+		int remaining = this.end - this.start;
+		System.arraycopy(this.chars, this.start, this.chars, 0, remaining);
+		this.start = 0;
+		this.end = remaining;
+
+		// A line longer than the buffer
+		if (this.chars.length - this.end < BLOCK_SIZE)
+			this.chars = Arrays.copyOf(this.chars, this.chars.length * 2);
+
+		int read = this.channel.read(this.bytes);
+		this.bytes.flip();
+
+		CharBuffer out = CharBuffer.wrap(this.chars, this.end, this.chars.length - this.end);
+		this.decoder.decode(this.bytes, out, read == -1);
+		if (read == -1) {
+			this.decoder.flush(out);
+			this.endOfFile = true;
+		}
+
+		this.end = out.position();
+		this.bytes.compact();
+	}
+
+	private static int indexOf(char c, char[] chars, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (chars[i] == c)
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Closes the INI file.
+	 *
+	 * @throws IOException If the file could not be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	/**
+	 * Returns the INI file that is being read from.
+	 *
+	 * @return The INI file that is being read
+	 */
+	public File getINIFile() {
+		return this.iniFile;
+	}
+
+	/**
+	 * A part of the parser's buffer, given to the handler instead of a String.
+	 */
+	private static final class View implements CharSequence {
+		private char[] chars;
+		private int offset, length;
+
+		View set(char[] chars, int offset, int length) {
+			this.chars = chars;
+			this.offset = offset;
+			this.length = length;
+			return this;
+		}
+
+		@Override
+		public int length() {
+			return this.length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= this.length)
+				throw new IndexOutOfBoundsException("index " + index + ", length " + this.length);
+
+			return this.chars[this.offset + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end > this.length || start > end)
+				throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + this.length);
+
+			return new String(this.chars, this.offset + start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			return new String(this.chars, this.offset, this.length);
+		}
+	}
+}
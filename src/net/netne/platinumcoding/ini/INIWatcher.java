@@ -0,0 +1,308 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class is used for reloading INI files as soon as they are changed by
+ * something else.
+ * <br /><br />
+ * Instead of reading a file again and again to see if it has changed, the
+ * watcher asks the operating system to be told when the directory of the file
+ * changes, with a {@link WatchService}. When a watched file changes, it is parsed
+ * again, and the new {@link INIDocument} replaces the old one in a single step.
+ * The old and new documents are then compared, and every listener of the file is
+ * given an {@link INIChangeEvent} with the elements that were added, removed and
+ * changed.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * INIWatcher watcher = new INIWatcher();
+ *
+ * watcher.watch(new java.io.File("Example.ini"), event -> {
+ *	for (INIElement element : event.getChanged())
+ *		System.out.println(element.getKey() + " is now " + element.getValue());
+ * });
+ *
+ * // Always the latest version of the file
+ * INIDocument document = watcher.getDocument(new java.io.File("Example.ini"));
+ *
+ * // ...
+ *
+ * watcher.close();
+ * }
+ * </pre>
+ *
+ * Listeners of a file are called one at a time, from the watcher's own thread.
+ * The only exception is a file that changes while
+ * {@link #watch(File, INIChangeListener)} first parses it. The thread that called
+ * it then parses the file again, and tells the listeners that were added in the
+ * meantime. The watcher never changes a document once it has been given out, and
+ * loads every new version of a file into a new document, so documents can be
+ * read from any thread while a new version is being loaded. The documents and
+ * their elements are shared by every listener and every caller of
+ * {@link #getDocument(File)}, though, so an {@link INIElementWriter} given one of
+ * their elements changes the value for all of them.
+ *
+ * @author Dealer Next Door
+ */
+public class INIWatcher implements Closeable {
+	/**
+	 * Tells the watcher when a watched directory changes
+	 */
+	private final WatchService service;
+
+	/**
+	 * The watched files, by their absolute path
+	 */
+	private final ConcurrentHashMap<Path, Watched> files = new ConcurrentHashMap<>();
+
+	/**
+	 * The directories that are registered with the watch service
+	 */
+	private final ConcurrentHashMap<Path, WatchKey> directories = new ConcurrentHashMap<>();
+
+	/**
+	 * The thread that waits for changes
+	 */
+	private final Thread thread;
+
+	/**
+	 * Creates a watcher and starts its thread.
+	 *
+	 * @throws IOException If the watch service could not be created
+	 */
+	public INIWatcher() throws IOException {
+		this.service = FileSystems.getDefault().newWatchService();
+		this.thread = new Thread(this::run, "INIWatcher");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Starts watching an INI file, and parses it if it is not already watched.
+	 *
+	 * @param file		The INI file to be watched
+	 * @param listener	Told about every change to the file, or null
+	 * @return The current version of the file
+	 * @throws IOException If the file could not be parsed, or its directory could
+	 * not be watched
+	 */
+	public INIDocument watch(File file, INIChangeListener listener) throws IOException {
+		Path path = file.toPath().toAbsolutePath().normalize();
+		Watched watched = this.files.get(path);
+
+		if (watched == null) {
+			BasicFileAttributes before = Files.readAttributes(path, BasicFileAttributes.class);
+			Watched loaded = new Watched(INIDocument.load(file));
+			watched = this.files.putIfAbsent(path, loaded);
+
+			if (watched == null) {
+				watched = loaded;
+
+				Path dir = path.getParent();
+				synchronized (this.directories) {
+					if (!this.directories.containsKey(dir)) {
+						try {
+							this.directories.put(dir, dir.register(this.service,
+									StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY));
+						} catch (IOException | RuntimeException ex) {
+							this.files.remove(path, loaded);
+							throw ex;
+						}
+					}
+				}
+
+				// Changes made while the file was parsed were ignored, since it was
+				// not watched yet
+				if (changed(before, path))
+					this.reload(path);
+			}
+		}
+
+		if (listener != null)
+			watched.listeners.add(listener);
+
+		return watched.document.get();
+	}
+
+	/**
+	 * Stops watching an INI file, and forgets its listeners. Once none of the
+	 * files in its directory are watched, the directory is no longer watched
+	 * either.
+	 *
+	 * @param file The INI file to stop watching
+	 */
+	public void unwatch(File file) {
+		Path path = file.toPath().toAbsolutePath().normalize();
+		if (this.files.remove(path) == null)
+			return;
+
+		// The directory is no longer watched once none of its files are
+		Path dir = path.getParent();
+		synchronized (this.directories) {
+			for (Path watched : this.files.keySet()) {
+				if (watched.getParent().equals(dir))
+					return;
+			}
+
+			WatchKey key = this.directories.remove(dir);
+			if (key != null)
+				key.cancel();
+		}
+	}
+
+	/**
+	 * Removes a listener from an INI file. The file is still watched.
+	 *
+	 * @param file		The watched INI file
+	 * @param listener	The listener to be removed
+	 */
+	public void removeListener(File file, INIChangeListener listener) {
+		Watched watched = this.files.get(file.toPath().toAbsolutePath().normalize());
+		if (watched != null)
+			watched.listeners.remove(listener);
+	}
+
+	/**
+	 * Gets the latest version of a watched INI file.
+	 *
+	 * @param file The watched INI file
+	 * @return The latest parsed version of the file, or null if it is not watched
+	 */
+	public INIDocument getDocument(File file) {
+		Watched watched = this.files.get(file.toPath().toAbsolutePath().normalize());
+		return (watched != null ? watched.document.get() : null);
+	}
+
+	/**
+	 * Stops the watcher's thread and no longer watches any files.
+	 *
+	 * @throws IOException If the watch service could not be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		this.service.close();
+		this.files.clear();
+		this.directories.clear();
+	}
+
+	/**
+	 * Waits for watched directories to change until the watcher is closed.
+	 */
+	private void run() {
+		try {
+			while (true) {
+				WatchKey key = this.service.take();
+				Path dir = (Path) key.watchable();
+
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						// Some changes were lost, so every file in the directory
+						// has to be checked
+						for (Path path : this.files.keySet()) {
+							if (path.getParent().equals(dir))
+								this.reload(path);
+						}
+					} else {
+						this.reload(dir.resolve((Path) event.context()));
+					}
+				}
+
+				if (!key.reset())
+					this.directories.remove(dir, key);
+			}
+		} catch (InterruptedException | ClosedWatchServiceException ex) {
+			// The watcher has been closed
+		}
+	}
+
+	/**
+	 * Parses a file again, if it is watched, and tells its listeners what has
+	 * changed.
+	 *
+	 * @param path The absolute path of the file that has changed
+	 */
+	private void reload(Path path) {
+		Watched watched = this.files.get(path);
+		if (watched == null)
+			return;
+
+		synchronized (watched) {
+			INIDocument document;
+			try {
+				document = INIDocument.load(path.toFile());
+			} catch (IOException ex) {
+				// The file may have been moved away, the old version is kept until
+				// it can be read again
+				return;
+			}
+
+			INIDocument old = watched.document.getAndSet(document);
+			INIChangeEvent event = INIChangeEvent.between(path.toFile(), old, document);
+			if (event.isEmpty())
+				return;
+
+			for (INIChangeListener listener : watched.listeners) {
+				try {
+					listener.changed(event);
+				} catch (RuntimeException ex) {
+					ex.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if a file has changed since its attributes were read.
+	 *
+	 * @param before	The attributes of the file before
+	 * @param path		The file
+	 * @return True if the file has changed, or can no longer be read
+	 */
+	private static boolean changed(BasicFileAttributes before, Path path) {
+		BasicFileAttributes now;
+		try {
+			now = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (IOException ex) {
+			return true;
+		}
+
+		return now.size() != before.size()
+				|| !now.lastModifiedTime().equals(before.lastModifiedTime())
+				|| !Objects.equals(now.fileKey(), before.fileKey());
+	}
+
+	/**
+	 * A watched INI file.
+	 */
+	private static class Watched {
+		/**
+		 * The latest version of the file
+		 */
+		final AtomicReference<INIDocument> document;
+
+		/**
+		 * Told about every change to the file
+		 */
+		final CopyOnWriteArrayList<INIChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+		Watched(INIDocument document) {
+			this.document = new AtomicReference<>(document);
+		}
+	}
+}
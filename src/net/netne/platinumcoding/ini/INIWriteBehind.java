@@ -0,0 +1,368 @@
+package net.netne.platinumcoding.ini;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is used for changing values that are updated many times a second,
+ * such as counters or flags, without rewriting the file every time.
+ * <br /><br />
+ * A value that is changed through a write-behind is changed in memory right
+ * away, and the change is remembered. All of the changes to a file are written
+ * together, in a single rewrite of the file, once a delay has passed since the
+ * first of them, or as soon as a certain number of different elements have
+ * changed. If the same element is changed many times before then, only its last
+ * value is written.
+ * <br /><br />
+ * Changes can also be written right away with {@link #flush()}, and are written
+ * when the write-behind is closed, or when the JVM shuts down. A single shutdown
+ * hook writes the changes of every write-behind that is still open, and does not
+ * keep them from being garbage collected, so a write-behind that is no longer
+ * used does not have to be closed once its changes are written. The background
+ * thread stops on its own when there is nothing to write.
+ * <br /><br />
+ * <pre>
+ * {@code
+ * // ...
+ *
+ * // Writes at most every half a second, or once 1000 elements have changed
+ * INIWriteBehind writeBehind = new INIWriteBehind(500, 1000);
+ *
+ * INIDocument document = INIDocument.load(new java.io.File("Stats.ini"));
+ * INIElement requests = document.get("Server", "Requests");
+ * INIElementWriter writer = new INIElementWriter(requests, writeBehind);
+ *
+ * for (int i = 0; i < 10000; i++)
+ *	writer.setValue(requests.getLong(0) + 1);	// Only changes the document
+ *
+ * writeBehind.close();	// Writes the last value
+ *
+ * // ...
+ * }
+ * </pre>
+ *
+ * Only elements that are already in the file are changed, the same as
+ * {@link INIEditSession#setValue(String, String, Object)}. Changes that could not
+ * be written by the background thread are printed and kept, and are tried again
+ * with the next write.
+ *
+ * @author Dealer Next Door
+ */
+public class INIWriteBehind implements Closeable {
+	/**
+	 * Every write-behind that has not been closed, without keeping them from
+	 * being garbage collected
+	 */
+	private static final Set<INIWriteBehind> OPEN = Collections.newSetFromMap(new WeakHashMap<>());
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(INIWriteBehind::flushOpen, "INIWriteBehind shutdown"));
+	}
+
+	/**
+	 * The changes that have not been written yet, for every file
+	 */
+	private final ConcurrentHashMap<Path, Pending> pending = new ConcurrentHashMap<>();
+
+	/**
+	 * Writes the changes in the background
+	 */
+	private final ScheduledThreadPoolExecutor scheduler;
+
+	/**
+	 * How long to wait after the first change to a file before writing it
+	 */
+	private final long delay;
+
+	/**
+	 * The number of changed elements that makes a file be written right away
+	 */
+	private final int maxPending;
+
+	private volatile boolean closed;
+
+	/**
+	 * Creates a write-behind that writes changes half a second after they were
+	 * made, or once 1000 elements of a file have changed.
+	 */
+	public INIWriteBehind() {
+		this(500, 1000);
+	}
+
+	/**
+	 * Creates a write-behind.
+	 *
+	 * @param delayMillis	How long to wait after the first change to a file before
+	 * writing it, in milliseconds
+	 * @param maxPending	The number of changed elements that makes a file be
+	 * written right away
+	 */
+	public INIWriteBehind(long delayMillis, int maxPending) {
+		if (delayMillis < 0)
+			throw new IllegalArgumentException("delayMillis must not be negative: " + delayMillis);
+		if (maxPending <= 0)
+			throw new IllegalArgumentException("maxPending must be positive: " + maxPending);
+
+		this.delay = delayMillis;
+		this.maxPending = maxPending;
+		this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "INIWriteBehind");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		// The thread does not outlive the write-behind when it is not closed
+		this.scheduler.setKeepAliveTime(Math.max(delayMillis, 1000), TimeUnit.MILLISECONDS);
+		this.scheduler.allowCoreThreadTimeOut(true);
+		this.scheduler.setRemoveOnCancelPolicy(true);
+
+		synchronized (OPEN) {
+			OPEN.add(this);
+		}
+	}
+
+	/**
+	 * Changes the value of an element in memory right away, and writes it to the
+	 * element's INI file later.
+	 *
+	 * @param element	The element to be changed
+	 * @param value		The new value of the element
+	 * @throws IllegalStateException If the write-behind is closed
+	 */
+	public void setValue(INIElement element, Object value) {
+		this.changed(element, value);
+		element.setValue(value);
+	}
+
+	/**
+	 * Remembers that an element's value has changed, so that it is written with
+	 * the next write of its file.
+	 *
+	 * @param element	The element that was changed
+	 * @param value		The new value of the element
+	 * @throws IllegalStateException If the write-behind is closed
+	 */
+	void changed(INIElement element, Object value) {
+		if (this.closed)
+			throw new IllegalStateException("The write-behind is closed");
+
+		File file = element.getINIFile();
+		Pending pending = this.pending.computeIfAbsent(file.toPath().toAbsolutePath().normalize(),
+				path -> new Pending(file));
+
+		synchronized (pending) {
+			if (pending.values.computeIfAbsent(element.getCategory(), category -> new LinkedHashMap<>())
+					.put(element.getKey(), value) == null)
+				pending.count++;
+			long delay = (pending.count >= this.maxPending ? 0 : this.delay);
+
+			// Moving the write forward if the file has too many changes to wait
+			if (pending.task != null && pending.task.getDelay(TimeUnit.MILLISECONDS) > delay) {
+				pending.task.cancel(false);
+				pending.task = null;
+			}
+
+			if (pending.task == null)
+				pending.task = this.scheduler.schedule(() -> this.flushQuietly(pending), delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Writes the changes to every file right away.
+	 *
+	 * @throws IOException If a file could not be written. The other files are
+	 * still written, and the changes that were not written are kept.
+	 */
+	public void flush() throws IOException {
+		IOException error = null;
+
+		for (Pending pending : this.pending.values()) {
+			try {
+				this.flush(pending);
+			} catch (IOException ex) {
+				if (error == null)
+					error = ex;
+				else
+					error.addSuppressed(ex);
+			}
+		}
+
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * Writes the changes to a single file right away.
+	 *
+	 * @param file The file to be written
+	 * @throws IOException If the file could not be written. The changes are kept.
+	 */
+	public void flush(File file) throws IOException {
+		Pending pending = this.pending.get(file.toPath().toAbsolutePath().normalize());
+		if (pending != null)
+			this.flush(pending);
+	}
+
+	private void flush(Pending pending) throws IOException {
+		// Only one write of a file at a time, so that an older write is never
+		// made after a newer one
+		pending.flushing.lock();
+		try {
+			Map<String, LinkedHashMap<String, Object>> values;
+
+			synchronized (pending) {
+				if (pending.task != null) {
+					pending.task.cancel(false);
+					pending.task = null;
+				}
+
+				if (pending.values.isEmpty())
+					return;
+
+				values = pending.values;
+				pending.values = new LinkedHashMap<>();
+				pending.count = 0;
+			}
+
+			INIEditSession session = new INIEditSession(pending.iniFile);
+			for (Map.Entry<String, LinkedHashMap<String, Object>> category : values.entrySet()) {
+				for (Map.Entry<String, Object> element : category.getValue().entrySet())
+					session.setValue(category.getKey(), element.getKey(), element.getValue());
+			}
+
+			try {
+				session.commit();
+			} catch (IOException ex) {
+				this.restore(pending, values);
+				throw ex;
+			}
+		} finally {
+			pending.flushing.unlock();
+		}
+	}
+
+	/**
+	 * Puts back changes that could not be written, unless the element has been
+	 * changed again since, and tries them again later.
+	 */
+	private void restore(Pending pending, Map<String, LinkedHashMap<String, Object>> values) {
+		synchronized (pending) {
+			for (Map.Entry<String, LinkedHashMap<String, Object>> category : values.entrySet()) {
+				LinkedHashMap<String, Object> current = pending.values.computeIfAbsent(category.getKey(),
+						c -> new LinkedHashMap<>());
+				for (Map.Entry<String, Object> element : category.getValue().entrySet()) {
+					if (current.putIfAbsent(element.getKey(), element.getValue()) == null)
+						pending.count++;
+				}
+			}
+
+			if (pending.task == null && !this.closed)
+				pending.task = this.scheduler.schedule(() -> this.flushQuietly(pending), this.delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void flushQuietly(Pending pending) {
+		try {
+			this.flush(pending);
+		} catch (IOException ex) {
+			INIInstrumentation.error(pending.iniFile, ex);
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes the changes of every write-behind that is still open, when the JVM
+	 * shuts down.
+	 */
+	private static void flushOpen() {
+		ArrayList<INIWriteBehind> open;
+		synchronized (OPEN) {
+			open = new ArrayList<>(OPEN);
+		}
+
+		for (INIWriteBehind writeBehind : open) {
+			for (Pending pending : writeBehind.pending.values())
+				writeBehind.flushQuietly(pending);
+		}
+	}
+
+	/**
+	 * Checks if there are changes that have not been written yet.
+	 *
+	 * @return True if every change has been written
+	 */
+	public boolean isEmpty() {
+		for (Pending pending : this.pending.values()) {
+			synchronized (pending) {
+				if (!pending.values.isEmpty())
+					return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Writes every change that has not been written yet, then stops the
+	 * background thread. Values can no longer be changed afterwards.
+	 *
+	 * @throws IOException If a file could not be written
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed) return;
+		this.closed = true;
+
+		synchronized (OPEN) {
+			OPEN.remove(this);
+		}
+
+		try {
+			this.flush();
+		} finally {
+			this.scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * The changes to a single file that have not been written yet.
+	 */
+	private static class Pending {
+		final File iniFile;
+
+		/**
+		 * Held while the file is being written
+		 */
+		final ReentrantLock flushing = new ReentrantLock();
+
+		/**
+		 * The newest value of every changed element, by category and key
+		 */
+		LinkedHashMap<String, LinkedHashMap<String, Object>> values = new LinkedHashMap<>();
+
+		/**
+		 * The number of different elements changed since the file was last written
+		 */
+		int count;
+
+		/**
+		 * The write that has been scheduled, if there is one
+		 */
+		ScheduledFuture<?> task;
+
+		Pending(File file) {
+			this.iniFile = file;
+		}
+	}
+}